@@ -0,0 +1,61 @@
+package com.hmdp.config;
+
+import com.hmdp.utils.CacheClient;
+import com.hmdp.utils.CacheCompressor;
+import com.hmdp.utils.CacheInvalidator;
+import com.hmdp.utils.CacheMetrics;
+import com.hmdp.utils.CacheRefresher;
+import com.hmdp.utils.CacheWarmer;
+import com.hmdp.utils.HotKeyDetector;
+import org.springframework.boot.actuate.endpoint.annotation.Endpoint;
+import org.springframework.boot.actuate.endpoint.annotation.ReadOperation;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.Resource;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * 缓存运行状态的监控端点：/actuator/cache
+ * 单个指标可以通过 /actuator/metrics/cache.gets?tag=prefix:cache:shop: 等查询
+ */
+@Component
+@Endpoint(id = "cache")
+public class CacheEndpoint {
+
+    @Resource
+    private CacheMetrics cacheMetrics;
+
+    @Resource
+    private CacheClient cacheClient;
+
+    @Resource
+    private CacheRefresher cacheRefresher;
+
+    @Resource
+    private HotKeyDetector hotKeyDetector;
+
+    @Resource
+    private CacheInvalidator cacheInvalidator;
+
+    @Resource
+    private CacheWarmer cacheWarmer;
+
+    @Resource
+    private CacheCompressor cacheCompressor;
+
+    @ReadOperation
+    public Map<String, Object> cache() {
+        Map<String, Object> cache = new LinkedHashMap<>();
+        cache.put("prefixes", cacheMetrics.summary());
+        cache.put("refresh", cacheRefresher.stats());
+        cache.put("hotKeys", hotKeyDetector.stats());
+        cache.put("hotKeyList", hotKeyDetector.hotKeys());
+        cache.put("degrade", cacheClient.degradeStats());
+        cache.put("invalidate", cacheInvalidator.stats());
+        cache.put("bloom", cacheClient.bloomFilterStats());
+        cache.put("warmUp", cacheWarmer.stats());
+        cache.put("compress", cacheCompressor.stats());
+        return cache;
+    }
+}
@@ -0,0 +1,30 @@
+package com.hmdp.config;
+
+import com.hmdp.utils.CacheWarmer;
+import org.springframework.boot.actuate.health.AbstractHealthIndicator;
+import org.springframework.boot.actuate.health.Health;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.Resource;
+
+/**
+ * 缓存预热的就绪检查：所有前缀的预热比例达到readyRatio之前返回DOWN，
+ * 加入readiness健康组（management.endpoint.health.group.readiness.include），
+ * 预热超时或有页失败时启动仍然完成，但 /actuator/health/readiness 一直不就绪，直到后台预热达到就绪比例
+ */
+@Component
+public class CacheWarmUpHealthIndicator extends AbstractHealthIndicator {
+
+    @Resource
+    private CacheWarmer cacheWarmer;
+
+    @Override
+    protected void doHealthCheck(Health.Builder builder) {
+        if (cacheWarmer.isReady()) {
+            builder.up();
+        } else {
+            builder.down();
+        }
+        builder.withDetail("warmUp", cacheWarmer.stats());
+    }
+}
@@ -1,10 +1,23 @@
 package com.hmdp.config;
 
+import cn.hutool.core.util.StrUtil;
+import com.hmdp.utils.CacheClient;
+import com.hmdp.utils.SeckillFlags;
+import com.hmdp.utils.SeckillOrderStatus;
 import org.redisson.Redisson;
 import org.redisson.api.RedissonClient;
 import org.redisson.config.Config;
+import org.springframework.boot.autoconfigure.data.redis.RedisProperties;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.data.redis.connection.RedisConnectionFactory;
+import org.springframework.data.redis.listener.ChannelTopic;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+
+import static com.hmdp.utils.RedisConstants.CACHE_BLOOM_CHANNEL;
+import static com.hmdp.utils.RedisConstants.CACHE_INVALIDATE_CHANNEL;
+import static com.hmdp.utils.RedisConstants.SECKILL_FLAG_CHANNEL;
+import static com.hmdp.utils.RedisConstants.SECKILL_ORDER_STATUS_CHANNEL;
 
 /**
  * 配置Redisson客户端
@@ -85,12 +98,36 @@ public class RedisConfig {
      */
 
     @Bean
-    public RedissonClient redissonClient() {
+    public RedissonClient redissonClient(RedisProperties redisProperties) {
         // 配置类
         Config config = new Config();
         // 添加redis地址，这里添加了单节点的地址，也可以使用config.useClusterServers()添加集群地址
-        config.useSingleServer().setAddress("redis://120.77.168.189:6379").setPassword("123456");
+        // 与StringRedisTemplate共用spring.redis配置，方便切换到本地redis测试
+        config.useSingleServer()
+                .setAddress("redis://" + redisProperties.getHost() + ":" + redisProperties.getPort())
+                .setPassword(StrUtil.emptyToNull(redisProperties.getPassword()));
         // 创建客户端
         return Redisson.create(config);
     }
+
+    /**
+     * redis发布订阅监听容器
+     */
+    @Bean
+    public RedisMessageListenerContainer redisMessageListenerContainer(RedisConnectionFactory connectionFactory,
+                                                                       SeckillFlags seckillFlags,
+                                                                       SeckillOrderStatus seckillOrderStatus,
+                                                                       CacheClient cacheClient) {
+        RedisMessageListenerContainer container = new RedisMessageListenerContainer();
+        container.setConnectionFactory(connectionFactory);
+        // 秒杀券售罄、结束状态广播
+        container.addMessageListener(seckillFlags, new ChannelTopic(SECKILL_FLAG_CHANNEL));
+        // 秒杀订单状态通知，唤醒长轮询的请求
+        container.addMessageListener(seckillOrderStatus, new ChannelTopic(SECKILL_ORDER_STATUS_CHANNEL));
+        // 缓存删除通知，删除本地缓存
+        container.addMessageListener(cacheClient, new ChannelTopic(CACHE_INVALIDATE_CHANNEL));
+        // 布隆过滤器新增通知
+        container.addMessageListener(cacheClient, new ChannelTopic(CACHE_BLOOM_CHANNEL));
+        return container;
+    }
 }
@@ -6,10 +6,20 @@ import com.baomidou.mybatisplus.extension.plugins.pagination.Page;
 import com.hmdp.dto.Result;
 import com.hmdp.entity.Shop;
 import com.hmdp.service.IShopService;
+import com.hmdp.utils.CacheClient;
 import com.hmdp.utils.SystemConstants;
 import org.springframework.web.bind.annotation.*;
 
 import javax.annotation.Resource;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+import static com.hmdp.utils.RedisConstants.CACHE_SHOP_KEY;
+import static com.hmdp.utils.RedisConstants.CACHE_SHOP_TTL;
 
 /**
  * <p>
@@ -26,6 +36,9 @@ public class ShopController {
     @Resource
     public IShopService shopService;
 
+    @Resource
+    private CacheClient cacheClient;
+
     /**
      * 根据id查询商铺信息
      * @param id 商铺id
@@ -36,6 +49,15 @@ public class ShopController {
         return shopService.queryById(id);
     }
 
+    /**
+     * 布隆过滤器统计信息：误判率、内存大小、拦截次数
+     * @return key前缀 -> 统计信息
+     */
+    @GetMapping("/bloom/stats")
+    public Result queryBloomFilterStats() {
+        return Result.ok(cacheClient.bloomFilterStats());
+    }
+
     /**
      * 新增商铺信息
      * @param shop 商铺数据
@@ -43,10 +65,8 @@ public class ShopController {
      */
     @PostMapping
     public Result saveShop(@RequestBody Shop shop) {
-        // 写入数据库
-        shopService.save(shop);
-        // 返回店铺id
-        return Result.ok(shop.getId());
+        // 写入数据库，并添加到布隆过滤器
+        return shopService.saveShop(shop);
     }
 
     /**
@@ -71,12 +91,18 @@ public class ShopController {
             @RequestParam("typeId") Integer typeId,
             @RequestParam(value = "current", defaultValue = "1") Integer current
     ) {
-        // 根据类型分页查询
+        // 根据类型分页查询id
         Page<Shop> page = shopService.query()
+                .select("id")
                 .eq("type_id", typeId)
                 .page(new Page<>(current, SystemConstants.DEFAULT_PAGE_SIZE));
+        List<Long> ids = page.getRecords().stream().map(Shop::getId).collect(Collectors.toList());
+        // 批量查询商铺缓存，未命中的一次查询数据库
+        Map<Long, Shop> shops = cacheClient.queryBatchWithLogicExpire(CACHE_SHOP_KEY, ids, Shop.class,
+                shopIds -> shopService.listByIds(shopIds).stream().collect(Collectors.toMap(Shop::getId, Function.identity())),
+                CACHE_SHOP_TTL, TimeUnit.MINUTES);
         // 返回数据
-        return Result.ok(page.getRecords());
+        return Result.ok(new ArrayList<>(shops.values()));
     }
 
     /**
@@ -4,9 +4,12 @@ package com.hmdp.controller;
 import com.hmdp.dto.Result;
 import com.hmdp.service.IVoucherOrderService;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.web.context.request.async.DeferredResult;
+import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.PostMapping;
 import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
 
 /**
@@ -28,4 +31,21 @@ public class VoucherOrderController {
     public Result seckillVoucher(@PathVariable("id") Long voucherId) {
         return voucherOrderService.seckillVoucher(voucherId);
     }
+
+    /**
+     * 查询秒杀订单状态
+     * @param orderId 订单id
+     * @param wait 是否长轮询
+     * @return 0-排队中 1-下单成功 2-下单失败 3-订单不存在（不是当前用户的订单或状态已过期）
+     */
+    @GetMapping("{orderId}/status")
+    public DeferredResult<Result> queryOrderStatus(@PathVariable("orderId") Long orderId,
+                                                   @RequestParam(value = "wait", defaultValue = "false") Boolean wait) {
+        return voucherOrderService.queryOrderStatus(orderId, wait);
+    }
+
+    @GetMapping("seckill/{id}/limiter")
+    public Result querySeckillLimiterStats(@PathVariable("id") Long voucherId) {
+        return voucherOrderService.querySeckillLimiterStats(voucherId);
+    }
 }
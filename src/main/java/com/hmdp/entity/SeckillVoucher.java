@@ -37,6 +37,11 @@ public class SeckillVoucher implements Serializable {
      */
     private Integer stock;
 
+    /**
+     * 库存分片数，热门秒杀券可以把库存拆分到多个redis key上，1表示不分片
+     */
+    private Integer stockShards;
+
     /**
      * 创建时间
      */
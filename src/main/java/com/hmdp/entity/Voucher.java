@@ -78,6 +78,12 @@ public class Voucher implements Serializable {
     @TableField(exist = false)
     private Integer stock;
 
+    /**
+     * 库存分片数，热门秒杀券可以把库存拆分到多个redis key上，默认不分片
+     */
+    @TableField(exist = false)
+    private Integer stockShards;
+
     /**
      * 生效时间
      */
@@ -13,4 +13,36 @@ import com.baomidou.mybatisplus.extension.service.IService;
  */
 public interface ISeckillVoucherService extends IService<SeckillVoucher> {
 
+    /**
+     * 从本地缓存查询秒杀券（开始、结束时间）
+     * @param voucherId
+     * @return 不存在时返回null
+     */
+    SeckillVoucher getCachedSeckillVoucher(Long voucherId);
+
+    /**
+     * 秒杀券的库存分片数
+     * @param voucherId
+     * @return 不分片或秒杀券不存在时返回1
+     */
+    int getStockShards(Long voucherId);
+
+    /**
+     * 缓存秒杀券，并在秒杀开始前预热redis库存
+     * @param seckillVoucher
+     */
+    void cacheSeckillVoucher(SeckillVoucher seckillVoucher);
+
+    /**
+     * 按秒杀券的库存分片数加载秒杀库存及时间到redis
+     * @param seckillVoucher
+     */
+    void loadStock(SeckillVoucher seckillVoucher);
+
+    /**
+     * redis中的库存不完整时重新加载：先删除redis中的库存，重新加载期间秒杀返回"未准备好"，
+     * 再按数据库的库存减去消息队列中还未写入数据库的订单数加载
+     * @param voucherId
+     */
+    void reloadStock(Long voucherId);
 }
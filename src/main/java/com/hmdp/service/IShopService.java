@@ -21,6 +21,13 @@ public interface IShopService extends IService<Shop> {
      */
     Result queryById(Long id);
 
+    /**
+     * 新增商铺
+     * @param shop
+     * @return 商铺id
+     */
+    Result saveShop(Shop shop);
+
     /**
      * 更新商铺
      * @param shop
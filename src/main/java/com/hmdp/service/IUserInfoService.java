@@ -13,4 +13,10 @@ import com.baomidou.mybatisplus.extension.service.IService;
  */
 public interface IUserInfoService extends IService<UserInfo> {
 
+    /**
+     * 查询用户详情，不包含创建、修改时间，结果缓存
+     * @param userId
+     * @return 没有详情时返回null
+     */
+    UserInfo queryUserInfo(Long userId);
 }
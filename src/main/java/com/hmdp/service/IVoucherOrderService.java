@@ -3,6 +3,9 @@ package com.hmdp.service;
 import com.hmdp.dto.Result;
 import com.hmdp.entity.VoucherOrder;
 import com.baomidou.mybatisplus.extension.service.IService;
+import org.springframework.web.context.request.async.DeferredResult;
+
+import java.util.List;
 
 /**
  * <p>
@@ -21,5 +24,31 @@ public interface IVoucherOrderService extends IService<VoucherOrder> {
      */
     Result seckillVoucher(Long voucherId);
 
-    Result createVoucherOrder(Long voucherId);
+    /**
+     * 查询当前用户的秒杀订单状态：0-排队中 1-下单成功 2-下单失败 3-订单不存在
+     * @param orderId
+     * @param wait 订单还在排队时是否挂起请求，直到状态变化或超时
+     * @return
+     */
+    DeferredResult<Result> queryOrderStatus(Long orderId, boolean wait);
+
+    /**
+     * 秒杀限流统计
+     * @param voucherId
+     * @return 放行数、拒绝数
+     */
+    Result querySeckillLimiterStats(Long voucherId);
+
+    /**
+     * 创建订单（已通过redis秒杀资格判断）
+     * @param voucherOrder
+     * @return 是否创建成功
+     */
+    boolean createVoucherOrder(VoucherOrder voucherOrder);
+
+    /**
+     * 批量创建订单（已通过redis秒杀资格判断）
+     * @param voucherOrders
+     */
+    void createVoucherOrders(List<VoucherOrder> voucherOrders);
 }
@@ -4,6 +4,8 @@ import com.hmdp.dto.Result;
 import com.hmdp.entity.Voucher;
 import com.baomidou.mybatisplus.extension.service.IService;
 
+import java.util.List;
+
 /**
  * <p>
  *  服务类
@@ -16,5 +18,27 @@ public interface IVoucherService extends IService<Voucher> {
 
     Result queryVoucherOfShop(Long shopId);
 
+    /**
+     * 查询商铺的优惠券，结果缓存，不包含秒杀券的库存
+     * @param shopId
+     * @return
+     */
+    List<Voucher> listVoucherOfShop(Long shopId);
+
     void addSeckillVoucher(Voucher voucher);
+
+    /**
+     * 补充秒杀券库存
+     * @param voucherId
+     * @param count
+     * @return
+     */
+    Result addSeckillStock(Long voucherId, Integer count);
+
+    /**
+     * 查询秒杀券剩余库存（分片库存汇总）
+     * @param voucherId
+     * @return
+     */
+    Result querySeckillStock(Long voucherId);
 }
@@ -1,11 +1,38 @@
 package com.hmdp.service.impl;
 
+import cn.hutool.cache.CacheUtil;
+import cn.hutool.cache.impl.TimedCache;
+import cn.hutool.core.bean.BeanUtil;
 import com.hmdp.entity.SeckillVoucher;
 import com.hmdp.mapper.SeckillVoucherMapper;
 import com.hmdp.service.ISeckillVoucherService;
 import com.baomidou.mybatisplus.extension.service.impl.ServiceImpl;
+import com.hmdp.utils.SeckillFlags;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.Range;
+import org.springframework.data.redis.connection.RedisZSetCommands;
+import org.springframework.data.redis.connection.stream.MapRecord;
+import org.springframework.data.redis.core.StringRedisTemplate;
 import org.springframework.stereotype.Service;
 
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.annotation.Resource;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import static com.hmdp.utils.RedisConstants.SECKILL_ORDER_STREAM_KEY;
+import static com.hmdp.utils.RedisConstants.SECKILL_STOCK_KEY;
+import static com.hmdp.utils.RedisConstants.SECKILL_STOCK_SHARD_KEY;
+
 /**
  * <p>
  * 秒杀优惠券表，与优惠券是一对一关系 服务实现类
@@ -14,7 +41,228 @@ import org.springframework.stereotype.Service;
  * @author 虎哥
  * @since 2022-01-04
  */
+@Slf4j
 @Service
 public class SeckillVoucherServiceImpl extends ServiceImpl<SeckillVoucherMapper, SeckillVoucher> implements ISeckillVoucherService {
 
+    @Resource
+    private StringRedisTemplate redisTemplate;
+
+    @Resource
+    private SeckillFlags seckillFlags;
+
+    /**
+     * 统计消息队列中的订单时每次读取的数量
+     */
+    private static final int QUEUED_ORDER_PAGE_SIZE = 1000;
+
+    /**
+     * 秒杀开始前多少秒预热redis库存
+     */
+    @Value("${hmdp.seckill.warm-up-seconds:60}")
+    private long warmUpSeconds;
+
+    /**
+     * 不存在的秒杀券id缓存多久，期间不再查询数据库
+     */
+    @Value("${hmdp.seckill.missing-voucher-ttl-ms:5000}")
+    private long missingVoucherTtlMillis;
+
+    /**
+     * 秒杀券本地缓存，秒杀时只读取开始、结束时间，库存以redis为准
+     */
+    private final Map<Long, SeckillVoucher> seckillVoucherCache = new ConcurrentHashMap<>();
+
+    /**
+     * 数据库中不存在的秒杀券id，避免不存在的id每次请求都查询数据库
+     */
+    private TimedCache<Long, Boolean> missingVoucherCache;
+
+    /**
+     * 预热redis库存的定时任务
+     */
+    private final ScheduledExecutorService warmUpExecutor = Executors.newSingleThreadScheduledExecutor();
+
+    /**
+     * 启动时加载所有未结束的秒杀券，并安排库存预热
+     */
+    @PostConstruct
+    private void init() {
+        missingVoucherCache = CacheUtil.newTimedCache(missingVoucherTtlMillis);
+        missingVoucherCache.schedulePrune(missingVoucherTtlMillis);
+        // 其它节点补充库存后删除本地缓存的秒杀券，下一次访问时从数据库加载新库存
+        seckillFlags.onStockAdded(seckillVoucherCache::remove);
+        List<SeckillVoucher> seckillVouchers = query().gt("end_time", LocalDateTime.now()).list();
+        seckillVouchers.forEach(seckillVoucher -> cacheSeckillVoucher(seckillVoucher));
+        log.info("加载未结束的秒杀券{}张", seckillVouchers.size());
+    }
+
+    @PreDestroy
+    private void destroy() {
+        warmUpExecutor.shutdownNow();
+        missingVoucherCache.cancelPruneSchedule();
+    }
+
+    @Override
+    public SeckillVoucher getCachedSeckillVoucher(Long voucherId) {
+        SeckillVoucher seckillVoucher = seckillVoucherCache.get(voucherId);
+        if (seckillVoucher != null) {
+            return seckillVoucher;
+        }
+        // 最近查询过、数据库中不存在的秒杀券
+        if (missingVoucherCache.containsKey(voucherId)) {
+            return null;
+        }
+        // 其它节点新增的秒杀券，第一次访问时从数据库加载
+        seckillVoucher = getById(voucherId);
+        if (seckillVoucher == null) {
+            missingVoucherCache.put(voucherId, Boolean.TRUE);
+            return null;
+        }
+        seckillVoucherCache.put(voucherId, seckillVoucher);
+        return seckillVoucher;
+    }
+
+    @Override
+    public int getStockShards(Long voucherId) {
+        SeckillVoucher seckillVoucher = getCachedSeckillVoucher(voucherId);
+        return seckillVoucher == null ? 1 : stockShards(seckillVoucher);
+    }
+
+    @Override
+    public void cacheSeckillVoucher(SeckillVoucher seckillVoucher) {
+        Long voucherId = seckillVoucher.getVoucherId();
+        seckillVoucherCache.put(voucherId, seckillVoucher);
+        missingVoucherCache.remove(voucherId);
+        long now = System.currentTimeMillis();
+        if (toEpochMilli(seckillVoucher.getEndTime()) < now) {
+            return;
+        }
+        // 在秒杀开始前warmUpSeconds秒检查并预热redis库存，已经开始的立即检查
+        long delay = toEpochMilli(seckillVoucher.getBeginTime()) - TimeUnit.SECONDS.toMillis(warmUpSeconds) - now;
+        warmUpExecutor.schedule(() -> warmUp(voucherId), Math.max(0, delay), TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * 预热：redis中没有库存（例如redis重启或数据被清空）时，从数据库重新加载
+     *
+     * @param voucherId
+     */
+    private void warmUp(Long voucherId) {
+        try {
+            if (Boolean.TRUE.equals(redisTemplate.hasKey(SECKILL_STOCK_KEY + voucherId))) {
+                return;
+            }
+            SeckillVoucher seckillVoucher = getById(voucherId);
+            if (seckillVoucher == null) {
+                seckillVoucherCache.remove(voucherId);
+                return;
+            }
+            if (LocalDateTime.now().isAfter(seckillVoucher.getBeginTime())) {
+                // 消息队列中可能还有未写入数据库的订单，不能直接使用数据库库存
+                log.warn("秒杀已开始但redis中没有库存，重新加载，voucherId = {}", voucherId);
+                reloadStock(voucherId);
+            } else {
+                loadStock(seckillVoucher);
+                log.info("预热秒杀券库存，voucherId = {}，stock = {}", voucherId, seckillVoucher.getStock());
+            }
+            seckillFlags.reset(voucherId);
+        } catch (Exception e) {
+            log.error("预热秒杀券库存失败，voucherId = {}", voucherId, e);
+        }
+    }
+
+    @Override
+    public void loadStock(SeckillVoucher seckillVoucher) {
+        // 保存秒杀库存及时间到redis，秒杀资格判断直接在redis中完成
+        Long voucherId = seckillVoucher.getVoucherId();
+        int stockShards = stockShards(seckillVoucher);
+        String begin = String.valueOf(toEpochMilli(seckillVoucher.getBeginTime()));
+        String end = String.valueOf(toEpochMilli(seckillVoucher.getEndTime()));
+        int stock = seckillVoucher.getStock();
+        if (stockShards <= 1) {
+            Map<String, String> seckillMap = new HashMap<>();
+            seckillMap.put("stock", String.valueOf(stock));
+            seckillMap.put("begin", begin);
+            seckillMap.put("end", end);
+            redisTemplate.opsForHash().putAll(SECKILL_STOCK_KEY + voucherId, seckillMap);
+            return;
+        }
+        // 热门秒杀券：库存平均拆分到多个分片，余数分给前面的分片
+        for (int i = 0; i < stockShards; i++) {
+            Map<String, String> shardMap = new HashMap<>();
+            shardMap.put("stock", String.valueOf(stock / stockShards + (i < stock % stockShards ? 1 : 0)));
+            shardMap.put("begin", begin);
+            shardMap.put("end", end);
+            redisTemplate.opsForHash().putAll(String.format(SECKILL_STOCK_SHARD_KEY, voucherId, i), shardMap);
+        }
+        // 最后写入分片数，秒杀时根据分片数判断走哪种方式
+        redisTemplate.opsForHash().put(SECKILL_STOCK_KEY + voucherId, "shards", String.valueOf(stockShards));
+    }
+
+    @Override
+    public void reloadStock(Long voucherId) {
+        SeckillVoucher seckillVoucher = getById(voucherId);
+        if (seckillVoucher == null) {
+            return;
+        }
+        // 先删除redis中的库存，秒杀脚本返回"未准备好"，重新加载期间不再扣减库存，消息队列中该券的订单只会减少
+        int stockShards = stockShards(seckillVoucher);
+        redisTemplate.delete(SECKILL_STOCK_KEY + voucherId);
+        if (stockShards > 1) {
+            for (int i = 0; i < stockShards; i++) {
+                redisTemplate.delete(String.format(SECKILL_STOCK_SHARD_KEY, voucherId, i));
+            }
+        }
+        // 先统计消息队列，再查询数据库：订单提交后才从队列中删除，统计之后提交的订单会被多减一次，库存只会偏少，不会超卖
+        long queued = countQueuedOrders(voucherId);
+        seckillVoucher = getById(voucherId);
+        if (seckillVoucher == null) {
+            return;
+        }
+        SeckillVoucher loading = BeanUtil.copyProperties(seckillVoucher, SeckillVoucher.class);
+        loading.setStock((int) Math.max(0, seckillVoucher.getStock() - queued));
+        loadStock(loading);
+        log.info("重新加载秒杀库存，voucherId = {}，数据库库存 = {}，未写入数据库的订单 = {}",
+                voucherId, seckillVoucher.getStock(), queued);
+    }
+
+    /**
+     * 统计消息队列中某张秒杀券还未写入数据库的订单数
+     *
+     * @param voucherId
+     * @return
+     */
+    private long countQueuedOrders(Long voucherId) {
+        String id = voucherId.toString();
+        long count = 0;
+        String start = "0-0";
+        while (true) {
+            List<MapRecord<String, Object, Object>> records = redisTemplate.opsForStream().range(SECKILL_ORDER_STREAM_KEY,
+                    Range.rightUnbounded(Range.Bound.inclusive(start)), RedisZSetCommands.Limit.limit().count(QUEUED_ORDER_PAGE_SIZE));
+            if (records == null || records.isEmpty()) {
+                return count;
+            }
+            for (MapRecord<String, Object, Object> record : records) {
+                // 上一页的最后一条已经统计过
+                if (!record.getId().getValue().equals(start) && id.equals(record.getValue().get("voucherId"))) {
+                    count++;
+                }
+            }
+            String last = records.get(records.size() - 1).getId().getValue();
+            if (last.equals(start)) {
+                return count;
+            }
+            start = last;
+        }
+    }
+
+    private static int stockShards(SeckillVoucher seckillVoucher) {
+        Integer stockShards = seckillVoucher.getStockShards();
+        return stockShards == null ? 1 : Math.max(1, stockShards);
+    }
+
+    private long toEpochMilli(LocalDateTime time) {
+        return time.atZone(ZoneId.systemDefault()).toInstant().toEpochMilli();
+    }
 }
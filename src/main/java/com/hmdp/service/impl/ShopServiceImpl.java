@@ -1,25 +1,20 @@
 package com.hmdp.service.impl;
 
-import cn.hutool.core.util.BooleanUtil;
-import cn.hutool.core.util.StrUtil;
-import cn.hutool.json.JSONObject;
-import cn.hutool.json.JSONUtil;
 import com.hmdp.dto.Result;
 import com.hmdp.entity.Shop;
 import com.hmdp.mapper.ShopMapper;
 import com.hmdp.service.IShopService;
+import com.baomidou.mybatisplus.extension.plugins.pagination.Page;
 import com.baomidou.mybatisplus.extension.service.impl.ServiceImpl;
 import com.hmdp.utils.CacheClient;
-import com.hmdp.utils.RedisConstants;
-import com.hmdp.utils.RedisData;
+import com.hmdp.utils.CacheInvalidator;
+import com.hmdp.utils.CacheWarmer;
 import org.springframework.beans.factory.annotation.Autowired;
-import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.boot.ApplicationArguments;
+import org.springframework.boot.ApplicationRunner;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 
-import java.time.LocalDateTime;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
 import java.util.concurrent.TimeUnit;
 
 import static com.hmdp.utils.RedisConstants.*;
@@ -33,27 +28,30 @@ import static com.hmdp.utils.RedisConstants.*;
  * @since 2021-12-22
  */
 @Service
-public class ShopServiceImpl extends ServiceImpl<ShopMapper, Shop> implements IShopService {
+public class ShopServiceImpl extends ServiceImpl<ShopMapper, Shop> implements IShopService, ApplicationRunner {
 
     @Autowired
-    private StringRedisTemplate redisTemplate;
+    private CacheClient cacheClient;
 
     @Autowired
-    private CacheClient cacheClient;
+    private CacheInvalidator cacheInvalidator;
+
+    @Autowired
+    private CacheWarmer cacheWarmer;
 
     @Override
     public Result queryById(Long id) {
         // 缓存穿透：缓存空对象
-        //Shop shop = queryWithPassThrough(id);
         //Shop shop = cacheClient.queryWithPassThrough(CACHE_SHOP_KEY, id, Shop.class, this::getById, CACHE_SHOP_TTL, TimeUnit.MINUTES);
 
         // 缓存击穿：互斥锁
-        //Shop shop = queryWithMutex(id);
         //Shop shop = cacheClient.queryWithMutex(CACHE_SHOP_KEY, id, Shop.class, this::getById, CACHE_SHOP_TTL, TimeUnit.MINUTES);
 
         // 缓存击穿：逻辑过期
-        //Shop shop = queryWithLogicExpire(id);
-        Shop shop = cacheClient.queryWithLogicExpire(CACHE_SHOP_KEY, id, Shop.class, this::getById, CACHE_SHOP_TTL, TimeUnit.MINUTES);
+        //Shop shop = cacheClient.queryWithLogicExpire(CACHE_SHOP_KEY, id, Shop.class, this::getById, CACHE_SHOP_TTL, TimeUnit.MINUTES);
+
+        // 缓存击穿：逻辑过期，未预热的商铺第一次访问时同步加载
+        Shop shop = cacheClient.queryWithLogicExpireOrLoad(CACHE_SHOP_KEY, id, Shop.class, this::getById, CACHE_SHOP_TTL, TimeUnit.MINUTES);
         if (shop == null) {
             return Result.fail("商铺不存在！");
         }
@@ -61,44 +59,21 @@ public class ShopServiceImpl extends ServiceImpl<ShopMapper, Shop> implements IS
     }
 
     /**
-     * 线程池
+     * 启动时预热最热的商铺（按销量、评论数排序），逻辑过期的缓存没有预热的商铺会查询不到
+     * 预热比例达到配置值之前应用不会就绪
      */
-    private static final ExecutorService CACHE_REBUILD_EXECUTOR = Executors.newFixedThreadPool(10);
-
-    /**
-     * 缓存击穿：逻辑过期
-     *
-     * @param id
-     * @return
-     */
-    private Shop queryWithLogicExpire(Long id) {
-        String key = CACHE_SHOP_KEY + id;
-        String redisDataJson = redisTemplate.opsForValue().get(key);
-        if (StrUtil.isBlank(redisDataJson)) {
-            return null;
-        }
-        RedisData redisData = JSONUtil.toBean(redisDataJson, RedisData.class);
-        Shop shop = JSONUtil.toBean((JSONObject) redisData.getData(), Shop.class);
-        if (LocalDateTime.now().isBefore(redisData.getExpireTime())) {
-            return shop;
-        }
-        String lockKey = LOCK_SHOP_KEY + id;
-        if (tryLock(lockKey)) {
-            CACHE_REBUILD_EXECUTOR.submit(() -> {
-                try {
-                    String redisDataJsonDoubleCheck = redisTemplate.opsForValue().get(key);
-                    RedisData redisDataDoubleCheck = JSONUtil.toBean(redisDataJsonDoubleCheck, RedisData.class);
-                    if (LocalDateTime.now().isAfter(redisDataDoubleCheck.getExpireTime())) {
-                        saveShop2Redis(id, 10L);
-                    }
-                } catch (Exception e) {
-                    throw new RuntimeException(e);
-                } finally {
-                    unLock(lockKey);
-                }
-            });
-        }
-        return shop;
+    @Override
+    public void run(ApplicationArguments args) {
+        // 用所有商铺id创建布隆过滤器，查询不存在的商铺时直接返回；此时已订阅新增通知，并定时重建
+        cacheClient.initBloomFilter(CACHE_SHOP_KEY,
+                () -> listObjs(query().select("id").getWrapper(), id -> Long.valueOf(id.toString())));
+        cacheWarmer.warmUp(CACHE_SHOP_KEY, count(),
+                (current, size) -> query()
+                        .orderByDesc("sold", "comments")
+                        .orderByAsc("id")
+                        .page(new Page<>(current, size, false))
+                        .getRecords(),
+                Shop::getId, CACHE_SHOP_TTL, TimeUnit.MINUTES);
     }
 
     /**
@@ -108,95 +83,20 @@ public class ShopServiceImpl extends ServiceImpl<ShopMapper, Shop> implements IS
      * @param expireSeconds
      */
     public void saveShop2Redis(Long id, Long expireSeconds) {
-        RedisData redisData = new RedisData();
-        redisData.setData(getById(id));
-        redisData.setExpireTime(LocalDateTime.now().plusSeconds(expireSeconds));
-        redisTemplate.opsForValue().set(CACHE_SHOP_KEY + id, JSONUtil.toJsonStr(redisData));
-    }
-
-    /**
-     * 缓存击穿：互斥锁
-     *
-     * @param id
-     * @return
-     */
-    private Shop queryWithMutex(Long id) {
-        String key = CACHE_SHOP_KEY + id;
-        String shopJson = redisTemplate.opsForValue().get(key);
-        if (StrUtil.isNotBlank(shopJson)) {
-            return JSONUtil.toBean(shopJson, Shop.class);
-        }
-        if (shopJson != null) {
-            return null;
-        }
-        String lockKey = LOCK_SHOP_KEY + id;
-        Shop shop = null;
-        try {
-            if (!tryLock(lockKey)) {
-                Thread.sleep(5000);
-                queryWithMutex(id);
-            }
-            Thread.sleep(10000);
-            shop = getById(id);
-            if (shop == null) {
-                redisTemplate.opsForValue().set(key, "", CACHE_NULL_TTL, TimeUnit.MINUTES);
-                return null;
-            }
-            redisTemplate.opsForValue().set(key, JSONUtil.toJsonStr(shop), CACHE_SHOP_TTL, TimeUnit.MINUTES);
-        } catch (InterruptedException e) {
-            throw new RuntimeException(e);
-        } finally {
-            unLock(lockKey);
-        }
-        return shop;
-    }
-
-    /**
-     * 获取锁
-     *
-     * @param key
-     * @return
-     */
-    private boolean tryLock(String key) {
-        Boolean flag = redisTemplate.opsForValue().setIfAbsent(key, "1", LOCK_SHOP_TTL, TimeUnit.SECONDS);
-        return BooleanUtil.isTrue(flag);
-    }
-
-    /**
-     * 释放锁
-     *
-     * @param key
-     */
-    private void unLock(String key) {
-        redisTemplate.delete(key);
+        cacheClient.setWithLogicExpire(CACHE_SHOP_KEY + id, getById(id), expireSeconds, TimeUnit.SECONDS);
     }
 
-
-    /**
-     * 缓存穿透：缓存空对象
-     *
-     * @param id
-     * @return
-     */
-    private Shop queryWithPassThrough(Long id) {
-        String key = CACHE_SHOP_KEY + id;
-        String shopJson = redisTemplate.opsForValue().get(key);
-        if (StrUtil.isNotBlank(shopJson)) {
-            return JSONUtil.toBean(shopJson, Shop.class);
-        }
-        if (shopJson != null) {
-            return null;
-        }
-        Shop shop = getById(id);
-        if (shop == null) {
-            redisTemplate.opsForValue().set(key, "", CACHE_NULL_TTL, TimeUnit.MINUTES);
-            return null;
-        }
-        redisTemplate.opsForValue().set(key, JSONUtil.toJsonStr(shop), CACHE_SHOP_TTL, TimeUnit.MINUTES);
-        return shop;
+    @Override
+    public Result saveShop(Shop shop) {
+        // 写入数据库
+        save(shop);
+        // 添加到所有节点的布隆过滤器
+        cacheClient.addToBloomFilter(CACHE_SHOP_KEY, shop.getId());
+        // 删除之前查询该id时写入的空值缓存
+        cacheInvalidator.invalidate(CACHE_SHOP_KEY + shop.getId());
+        return Result.ok(shop.getId());
     }
 
-
     @Override
     @Transactional
     public Result update(Shop shop) {
@@ -205,7 +105,8 @@ public class ShopServiceImpl extends ServiceImpl<ShopMapper, Shop> implements IS
             return Result.fail("商铺id为空！");
         }
         updateById(shop);
-        redisTemplate.delete(CACHE_SHOP_KEY + id);
+        // 事务提交后删除缓存，延迟后再删除一次，删除失败的稍后重试
+        cacheInvalidator.invalidate(CACHE_SHOP_KEY + id);
         return Result.ok();
     }
 }
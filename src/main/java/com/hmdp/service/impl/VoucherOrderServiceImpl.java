@@ -1,5 +1,9 @@
 package com.hmdp.service.impl;
 
+import cn.hutool.core.bean.BeanUtil;
+import cn.hutool.core.exceptions.ExceptionUtil;
+import cn.hutool.core.lang.UUID;
+import cn.hutool.core.util.StrUtil;
 import com.hmdp.dto.Result;
 import com.hmdp.entity.SeckillVoucher;
 import com.hmdp.entity.VoucherOrder;
@@ -8,17 +12,59 @@ import com.hmdp.service.ISeckillVoucherService;
 import com.hmdp.service.IVoucherOrderService;
 import com.baomidou.mybatisplus.extension.service.impl.ServiceImpl;
 import com.hmdp.utils.RedisIdWorker;
-import com.hmdp.utils.SimpleRedisLock;
+import com.hmdp.utils.SeckillFlags;
+import com.hmdp.utils.SeckillLimiter;
+import com.hmdp.utils.SeckillOrderStatus;
 import com.hmdp.utils.UserHolder;
-import org.redisson.api.RLock;
-import org.redisson.api.RedissonClient;
-import org.springframework.aop.framework.AopContext;
+import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.annotation.Lazy;
+import org.springframework.context.event.EventListener;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.data.domain.Range;
+import org.springframework.data.redis.connection.RedisStreamCommands;
+import org.springframework.data.redis.connection.stream.Consumer;
+import org.springframework.data.redis.connection.stream.MapRecord;
+import org.springframework.data.redis.connection.stream.PendingMessage;
+import org.springframework.data.redis.connection.stream.PendingMessages;
+import org.springframework.data.redis.connection.stream.ReadOffset;
+import org.springframework.data.redis.connection.stream.RecordId;
+import org.springframework.data.redis.connection.stream.StreamOffset;
+import org.springframework.data.redis.connection.stream.StreamReadOptions;
+import org.springframework.data.redis.connection.stream.StreamRecords;
+import org.springframework.data.redis.core.RedisCallback;
 import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
+import org.springframework.web.context.request.async.DeferredResult;
 
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
 import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+import static com.hmdp.utils.RedisConstants.SECKILL_ORDER_DEAD_STREAM_KEY;
+import static com.hmdp.utils.RedisConstants.SECKILL_ORDER_KEY;
+import static com.hmdp.utils.RedisConstants.SECKILL_ORDER_SHARD_KEY;
+import static com.hmdp.utils.RedisConstants.SECKILL_ORDER_STREAM_KEY;
+import static com.hmdp.utils.RedisConstants.SECKILL_STOCK_KEY;
+import static com.hmdp.utils.RedisConstants.SECKILL_STOCK_SHARD_KEY;
 
 /**
  * <p>
@@ -28,6 +74,7 @@ import java.time.LocalDateTime;
  * @author 虎哥
  * @since 2021-12-22
  */
+@Slf4j
 @Service
 public class VoucherOrderServiceImpl extends ServiceImpl<VoucherOrderMapper, VoucherOrder> implements IVoucherOrderService {
 
@@ -41,72 +88,779 @@ public class VoucherOrderServiceImpl extends ServiceImpl<VoucherOrderMapper, Vou
     private StringRedisTemplate redisTemplate;
 
     @Autowired
-    private RedissonClient redissonClient;
+    private SeckillFlags seckillFlags;
+
+    @Autowired
+    private SeckillLimiter seckillLimiter;
+
+    @Autowired
+    private SeckillOrderStatus seckillOrderStatus;
+
+    /**
+     * 秒杀资格判断lua脚本
+     */
+    private static final DefaultRedisScript<Long> SECKILL_SCRIPT;
+
+    static {
+        SECKILL_SCRIPT = new DefaultRedisScript<>();
+        SECKILL_SCRIPT.setLocation(new ClassPathResource("seckill.lua"));
+        SECKILL_SCRIPT.setResultType(Long.class);
+    }
+
+    /**
+     * 分片库存秒杀资格判断lua脚本
+     */
+    private static final DefaultRedisScript<Long> SECKILL_SHARD_SCRIPT;
+
+    static {
+        SECKILL_SHARD_SCRIPT = new DefaultRedisScript<>();
+        SECKILL_SHARD_SCRIPT.setLocation(new ClassPathResource("seckill_shard.lua"));
+        SECKILL_SHARD_SCRIPT.setResultType(Long.class);
+    }
+
+    /**
+     * 从分片扣减库存lua脚本
+     */
+    private static final DefaultRedisScript<Long> SECKILL_SHARD_TAKE_SCRIPT;
+
+    static {
+        SECKILL_SHARD_TAKE_SCRIPT = new DefaultRedisScript<>();
+        SECKILL_SHARD_TAKE_SCRIPT.setLocation(new ClassPathResource("seckill_shard_take.lua"));
+        SECKILL_SHARD_TAKE_SCRIPT.setResultType(Long.class);
+    }
+
+    /**
+     * 归还库存lua脚本：库存已加载时才增加
+     */
+    private static final DefaultRedisScript<Long> SECKILL_STOCK_ADD_SCRIPT;
+
+    static {
+        SECKILL_STOCK_ADD_SCRIPT = new DefaultRedisScript<>();
+        SECKILL_STOCK_ADD_SCRIPT.setLocation(new ClassPathResource("seckill_stock_add.lua"));
+        SECKILL_STOCK_ADD_SCRIPT.setResultType(Long.class);
+    }
+
+    /**
+     * 消费者组
+     */
+    @Value("${hmdp.seckill.order-stream.group:g1}")
+    private String orderGroup;
+
+    /**
+     * 下单线程数（每个线程是消费者组中的一个消费者）
+     */
+    @Value("${hmdp.seckill.order-stream.workers:1}")
+    private int orderWorkers;
+
+    /**
+     * 消息队列允许积压的最大订单数，超过则拒绝秒杀（背压）
+     */
+    @Value("${hmdp.seckill.order-stream.max-backlog:100000}")
+    private long orderMaxBacklog;
+
+    /**
+     * 批量写入数据库的最大订单数
+     */
+    @Value("${hmdp.seckill.order-stream.batch-size:100}")
+    private int orderBatchSize;
+
+    /**
+     * 凑批的最长等待时间，读到第一条订单后最多再等待这么久凑满一批
+     */
+    @Value("${hmdp.seckill.order-stream.batch-window-ms:50}")
+    private long orderBatchWindowMs;
+
+    /**
+     * 消息被读取后超过该时间仍未确认，则认为消费者已宕机，由其它消费者认领
+     */
+    @Value("${hmdp.seckill.order-stream.claim-idle-seconds:60}")
+    private long orderClaimIdleSeconds;
+
+    /**
+     * 一条消息最多投递的次数，超过后转入死信队列，不再重试
+     */
+    @Value("${hmdp.seckill.order-stream.max-deliveries:5}")
+    private long orderMaxDeliveries;
+
+    /**
+     * 停机时等待下单线程处理完当前订单的时间
+     */
+    @Value("${hmdp.seckill.order-stream.shutdown-timeout-seconds:30}")
+    private long orderShutdownTimeoutSeconds;
+
+    /**
+     * 长轮询查询订单状态的最长等待时间
+     */
+    @Value("${hmdp.seckill.order-status.wait-ms:10000}")
+    private long orderStatusWaitMs;
+
+    /**
+     * 当前实例的标识，用来区分不同实例的消费者
+     */
+    private static final String INSTANCE_ID = UUID.randomUUID().toString(true);
+
+    /**
+     * 下单线程池
+     */
+    private ExecutorService seckillOrderExecutor;
+
+    /**
+     * 认领超时未确认消息的定时任务
+     */
+    private ScheduledExecutorService orderClaimExecutor;
+
+    /**
+     * 是否还在接收订单，停机时置为false
+     */
+    private volatile boolean running = true;
+
+    /**
+     * 代理对象：下单线程中无法通过AopContext获取，注入自身的代理
+     */
+    @Autowired
+    @Lazy
+    private IVoucherOrderService proxy;
+
+    @PostConstruct
+    private void init() {
+        createOrderGroup();
+    }
+
+    /**
+     * 应用启动完成后再启动下单线程，避免处理pending-list时代理对象还未创建完成；
+     * 下单线程数为0时本实例只接收秒杀请求，不处理订单消息
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    public void startOrderHandlers() {
+        if (orderWorkers <= 0) {
+            log.info("下单线程数为0，本实例不处理订单消息");
+            return;
+        }
+        seckillOrderExecutor = Executors.newFixedThreadPool(orderWorkers);
+        for (int i = 0; i < orderWorkers; i++) {
+            seckillOrderExecutor.submit(new VoucherOrderHandler(INSTANCE_ID + "-" + i));
+        }
+        orderClaimExecutor = Executors.newSingleThreadScheduledExecutor();
+        orderClaimExecutor.scheduleWithFixedDelay(this::claimIdleOrders,
+                orderClaimIdleSeconds, orderClaimIdleSeconds, TimeUnit.SECONDS);
+    }
+
+    /**
+     * 创建消费者组（XGROUP CREATE stream.orders g1 0 MKSTREAM），组已存在时忽略
+     */
+    private void createOrderGroup() {
+        try {
+            redisTemplate.execute((RedisCallback<String>) connection -> connection.xGroupCreate(
+                    SECKILL_ORDER_STREAM_KEY.getBytes(StandardCharsets.UTF_8), orderGroup, ReadOffset.from("0"), true));
+        } catch (RuntimeException e) {
+            if (!StrUtil.contains(ExceptionUtil.getRootCauseMessage(e), "BUSYGROUP")) {
+                throw e;
+            }
+        }
+    }
+
+    /**
+     * 消费者组不存在（例如redis重启或stream被删除）时重新创建
+     *
+     * @param e
+     * @return 是否是消费者组不存在的异常
+     */
+    private boolean recreateGroupIfMissing(Exception e) {
+        if (!StrUtil.contains(ExceptionUtil.getRootCauseMessage(e), "NOGROUP")) {
+            return false;
+        }
+        log.warn("消费者组{}不存在，重新创建", orderGroup);
+        try {
+            createOrderGroup();
+        } catch (RuntimeException ce) {
+            log.error("创建消费者组失败", ce);
+        }
+        return true;
+    }
+
+    /**
+     * 停机：不再接收新订单，等待下单线程处理完当前订单；未处理的订单留在消息队列中，由其它实例或重启后继续处理
+     */
+    @PreDestroy
+    private void destroy() throws InterruptedException {
+        running = false;
+        if (seckillOrderExecutor == null) {
+            return;
+        }
+        orderClaimExecutor.shutdownNow();
+        seckillOrderExecutor.shutdown();
+        if (!seckillOrderExecutor.awaitTermination(orderShutdownTimeoutSeconds, TimeUnit.SECONDS)) {
+            log.error("下单线程未能在{}秒内停止", orderShutdownTimeoutSeconds);
+        }
+    }
+
+    /**
+     * 下单任务：以消费者组的方式批量读取订单消息，写入数据库提交后再确认消息
+     */
+    private class VoucherOrderHandler implements Runnable {
+
+        private final Consumer consumer;
+
+        VoucherOrderHandler(String consumerName) {
+            this.consumer = Consumer.from(orderGroup, consumerName);
+        }
+
+        @Override
+        public void run() {
+            // 先处理上次未确认的消息（pending-list），再读取新消息
+            handlePendingList(consumer);
+            while (running) {
+                try {
+                    List<MapRecord<String, Object, Object>> list = readOrderBatch(consumer);
+                    if (list.isEmpty()) {
+                        continue;
+                    }
+                    handleOrderRecords(list);
+                } catch (Exception e) {
+                    if (!recreateGroupIfMissing(e)) {
+                        log.error("处理订单异常", e);
+                    }
+                    // 消息已被读取但未确认，留在pending-list中，重新处理一次
+                    handlePendingList(consumer);
+                }
+            }
+        }
+    }
+
+    /**
+     * 读取一批订单消息：没有消息时最多阻塞2秒，读到消息后在凑批时间内继续读取，直到凑满一批或超时
+     *
+     * @param consumer
+     * @return
+     */
+    private List<MapRecord<String, Object, Object>> readOrderBatch(Consumer consumer) {
+        // 获取消息队列中的订单信息 XREADGROUP GROUP g1 c1 COUNT 100 BLOCK 2000 STREAMS stream.orders >
+        List<MapRecord<String, Object, Object>> batch = new ArrayList<>(orderBatchSize);
+        List<MapRecord<String, Object, Object>> list = readOrders(consumer, orderBatchSize, 2000);
+        if (list == null || list.isEmpty()) {
+            return batch;
+        }
+        batch.addAll(list);
+        long deadline = System.currentTimeMillis() + orderBatchWindowMs;
+        long remainingMs;
+        while (batch.size() < orderBatchSize && (remainingMs = deadline - System.currentTimeMillis()) > 0) {
+            list = readOrders(consumer, orderBatchSize - batch.size(), remainingMs);
+            if (list == null || list.isEmpty()) {
+                break;
+            }
+            batch.addAll(list);
+        }
+        return batch;
+    }
+
+    private List<MapRecord<String, Object, Object>> readOrders(Consumer consumer, int count, long blockMs) {
+        return redisTemplate.opsForStream().read(
+                consumer,
+                StreamReadOptions.empty().count(count).block(Duration.ofMillis(blockMs)),
+                StreamOffset.create(SECKILL_ORDER_STREAM_KEY, ReadOffset.lastConsumed())
+        );
+    }
+
+    /**
+     * 处理消费者pending-list中已读取但未确认的消息，投递次数超过上限的消息先转入死信队列
+     *
+     * @param consumer
+     */
+    private void handlePendingList(Consumer consumer) {
+        while (running) {
+            try {
+                parkPoisonRecords(consumer);
+                // 获取pending-list中的订单信息 XREADGROUP GROUP g1 c1 COUNT 100 STREAMS stream.orders 0
+                List<MapRecord<String, Object, Object>> list = redisTemplate.opsForStream().read(
+                        consumer,
+                        StreamReadOptions.empty().count(orderBatchSize),
+                        StreamOffset.create(SECKILL_ORDER_STREAM_KEY, ReadOffset.from("0"))
+                );
+                if (list == null || list.isEmpty()) {
+                    // pending-list中没有消息
+                    return;
+                }
+                handleOrderRecords(list);
+            } catch (Exception e) {
+                if (recreateGroupIfMissing(e)) {
+                    // 新建的消费者组没有pending-list
+                    return;
+                }
+                log.error("处理pending-list订单异常", e);
+                try {
+                    Thread.sleep(20);
+                } catch (InterruptedException ie) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+            }
+        }
+    }
+
+    /**
+     * 把消费者pending-list中投递次数超过上限的消息转入死信队列 stream.orders.dead，并确认、删除原消息，
+     * 避免一条始终处理失败的消息阻塞下单线程和认领线程；
+     * 转入死信队列之前按下单失败处理：归还redis中的库存和下单资格，并写入下单失败状态，死信只用于人工排查
+     *
+     * @param consumer
+     */
+    private void parkPoisonRecords(Consumer consumer) {
+        // XPENDING stream.orders g1 - + 100 c1
+        PendingMessages pendingMessages = redisTemplate.opsForStream()
+                .pending(SECKILL_ORDER_STREAM_KEY, consumer, Range.unbounded(), (long) orderBatchSize);
+        for (PendingMessage pendingMessage : pendingMessages) {
+            if (pendingMessage.getTotalDeliveryCount() < orderMaxDeliveries) {
+                continue;
+            }
+            RecordId id = pendingMessage.getId();
+            List<MapRecord<String, Object, Object>> records = redisTemplate.opsForStream()
+                    .range(SECKILL_ORDER_STREAM_KEY, Range.closed(id.getValue(), id.getValue()));
+            if (records != null && !records.isEmpty()) {
+                failPoisonOrder(records.get(0).getValue());
+                Map<Object, Object> value = new HashMap<>(records.get(0).getValue());
+                value.put("sourceId", id.getValue());
+                value.put("deliveries", String.valueOf(pendingMessage.getTotalDeliveryCount()));
+                redisTemplate.opsForStream().add(StreamRecords.newRecord().in(SECKILL_ORDER_DEAD_STREAM_KEY).ofMap(value));
+                log.error("订单消息投递{}次仍处理失败，转入死信队列：id = {}，{}",
+                        pendingMessage.getTotalDeliveryCount(), id, records.get(0).getValue());
+            }
+            redisTemplate.opsForStream().acknowledge(SECKILL_ORDER_STREAM_KEY, orderGroup, id);
+            redisTemplate.opsForStream().delete(SECKILL_ORDER_STREAM_KEY, id);
+        }
+    }
+
+    /**
+     * 投递次数超过上限的订单按下单失败处理；订单已经写入数据库（提交后确认消息失败）时按下单成功处理
+     *
+     * @param value 订单消息
+     */
+    private void failPoisonOrder(Map<Object, Object> value) {
+        VoucherOrder voucherOrder = BeanUtil.fillBeanWithMap(value, new VoucherOrder(), true);
+        VoucherOrder existing = getById(voucherOrder.getId());
+        boolean success = existing != null && existing.getUserId().equals(voucherOrder.getUserId())
+                && existing.getVoucherId().equals(voucherOrder.getVoucherId());
+        if (!success) {
+            restoreSeckill(voucherOrder, value);
+        }
+        seckillOrderStatus.save(Collections.singletonList(voucherOrder),
+                success ? SeckillOrderStatus.SUCCESS : SeckillOrderStatus.FAILED);
+    }
+
+    /**
+     * 批量处理订单消息：一个事务内批量插入订单并按优惠券合并扣减库存，提交后一次性确认并删除消息；
+     * 批量写入失败（例如重复投递的订单已存在）时回滚，退回到逐条处理
+     *
+     * @param records
+     */
+    private void handleOrderRecords(List<MapRecord<String, Object, Object>> records) {
+        if (records.size() == 1) {
+            handleOrderRecord(records.get(0));
+            return;
+        }
+        List<VoucherOrder> voucherOrders = new ArrayList<>(records.size());
+        for (MapRecord<String, Object, Object> record : records) {
+            // 消息已被删除（pending-list中只剩id）时只需确认
+            if (!record.getValue().isEmpty()) {
+                voucherOrders.add(BeanUtil.fillBeanWithMap(record.getValue(), new VoucherOrder(), true));
+            }
+        }
+        try {
+            if (!voucherOrders.isEmpty()) {
+                proxy.createVoucherOrders(voucherOrders);
+            }
+        } catch (Exception e) {
+            log.warn("批量写入{}条订单失败，逐条处理：{}", voucherOrders.size(), e.getMessage());
+            records.forEach(this::handleOrderRecord);
+            return;
+        }
+        RecordId[] ids = records.stream().map(MapRecord::getId).toArray(RecordId[]::new);
+        redisTemplate.opsForStream().acknowledge(SECKILL_ORDER_STREAM_KEY, orderGroup, ids);
+        redisTemplate.opsForStream().delete(SECKILL_ORDER_STREAM_KEY, ids);
+        // 写入订单状态，供客户端轮询
+        seckillOrderStatus.save(voucherOrders, SeckillOrderStatus.SUCCESS);
+    }
+
+    /**
+     * 处理一条订单消息：写入数据库，事务提交后确认并删除消息
+     *
+     * @param record
+     */
+    private void handleOrderRecord(MapRecord<String, Object, Object> record) {
+        Map<Object, Object> value = record.getValue();
+        // 消息已被删除（pending-list中只剩id）时直接确认
+        VoucherOrder voucherOrder = null;
+        boolean success = true;
+        if (!value.isEmpty()) {
+            voucherOrder = BeanUtil.fillBeanWithMap(value, new VoucherOrder(), true);
+            try {
+                success = proxy.createVoucherOrder(voucherOrder);
+            } catch (DuplicateKeyException e) {
+                VoucherOrder existing = getById(voucherOrder.getId());
+                if (existing != null && existing.getUserId().equals(voucherOrder.getUserId())
+                        && existing.getVoucherId().equals(voucherOrder.getVoucherId())) {
+                    // 上次已经提交但没来得及确认，订单已存在
+                    log.warn("订单已存在，orderId = {}", voucherOrder.getId());
+                } else {
+                    // 订单id与其它订单重复
+                    log.error("订单id冲突，orderId = {}，userId = {}", voucherOrder.getId(), voucherOrder.getUserId());
+                    success = false;
+                }
+            }
+            if (!success) {
+                // 下单失败，归还redis中的库存和下单资格，再确认消息
+                restoreSeckill(voucherOrder, value);
+            }
+        }
+        // 确认消息 XACK stream.orders g1 id，并删除已处理的消息，使队列长度等于积压的订单数
+        redisTemplate.opsForStream().acknowledge(SECKILL_ORDER_STREAM_KEY, orderGroup, record.getId());
+        redisTemplate.opsForStream().delete(SECKILL_ORDER_STREAM_KEY, record.getId());
+        if (voucherOrder != null) {
+            seckillOrderStatus.save(Collections.singletonList(voucherOrder),
+                    success ? SeckillOrderStatus.SUCCESS : SeckillOrderStatus.FAILED);
+        }
+    }
+
+    /**
+     * 数据库下单失败时归还redis中的库存和下单资格；分片库存归还到扣减库存的分片，下单资格在用户所属的分片上；
+     * 库存归还成功后清除所有节点的售罄标记，否则已标记售罄的节点不会再卖出归还的库存
+     *
+     * @param voucherOrder
+     * @param value 订单消息
+     */
+    private void restoreSeckill(VoucherOrder voucherOrder, Map<Object, Object> value) {
+        Long voucherId = voucherOrder.getVoucherId();
+        Long userId = voucherOrder.getUserId();
+        int shards = getStockShards(voucherId);
+        String stockKey;
+        String orderKey;
+        if (shards <= 1) {
+            stockKey = SECKILL_STOCK_KEY + voucherId;
+            orderKey = SECKILL_ORDER_KEY + voucherId;
+        } else {
+            int home = (int) Math.floorMod(userId, (long) shards);
+            Object shard = value.get("shard");
+            int debited = shard == null ? home : Integer.parseInt(shard.toString());
+            stockKey = String.format(SECKILL_STOCK_SHARD_KEY, voucherId, debited);
+            orderKey = String.format(SECKILL_ORDER_SHARD_KEY, voucherId, home);
+        }
+        Long stock = redisTemplate.execute(SECKILL_STOCK_ADD_SCRIPT, Collections.singletonList(stockKey), "1");
+        redisTemplate.opsForSet().remove(orderKey, userId.toString());
+        if (stock != null && stock >= 0) {
+            seckillFlags.reset(voucherId);
+        }
+    }
+
+    /**
+     * 认领其它消费者超时未确认的消息（消费者所在实例宕机），交给当前实例的认领消费者处理
+     */
+    private void claimIdleOrders() {
+        try {
+            // XPENDING stream.orders g1 - + 100
+            PendingMessages pendingMessages = redisTemplate.opsForStream()
+                    .pending(SECKILL_ORDER_STREAM_KEY, orderGroup, Range.unbounded(), 100L);
+            Duration minIdle = Duration.ofSeconds(orderClaimIdleSeconds);
+            List<RecordId> idleIds = new ArrayList<>();
+            for (PendingMessage pendingMessage : pendingMessages) {
+                if (pendingMessage.getElapsedTimeSinceLastDelivery().compareTo(minIdle) >= 0) {
+                    idleIds.add(pendingMessage.getId());
+                }
+            }
+            if (idleIds.isEmpty()) {
+                return;
+            }
+            // XCLAIM stream.orders g1 claimer minIdle id... JUSTID
+            String claimer = INSTANCE_ID + "-claimer";
+            redisTemplate.execute((RedisCallback<List<RecordId>>) connection -> connection.xClaimJustId(
+                    SECKILL_ORDER_STREAM_KEY.getBytes(StandardCharsets.UTF_8), orderGroup, claimer,
+                    RedisStreamCommands.XClaimOptions.minIdle(minIdle).ids(idleIds.toArray(new RecordId[0]))));
+            log.warn("认领超时未确认的订单消息{}条", idleIds.size());
+            handlePendingList(Consumer.from(orderGroup, claimer));
+        } catch (Exception e) {
+            if (!recreateGroupIfMissing(e)) {
+                log.error("认领超时订单消息异常", e);
+            }
+        }
+    }
 
     @Override
     public Result seckillVoucher(Long voucherId) {
-        SeckillVoucher seckillVoucher = seckillVoucherService.getById(voucherId);
-        if (LocalDateTime.now().isBefore(seckillVoucher.getBeginTime())) {
-            return Result.fail("秒杀未开始！");
+        if (!running) {
+            return Result.fail("系统繁忙，请稍后再试！");
+        }
+        // 本地标记：已售罄、已结束、未开始的秒杀券直接拒绝，不访问redis
+        int flag = seckillFlags.check(voucherId);
+        if (flag != 0) {
+            return Result.fail(seckillFailMessage(flagToResult(flag)));
         }
-        if (LocalDateTime.now().isAfter(seckillVoucher.getEndTime())) {
-            return Result.fail("秒杀已结束！");
+        // 本地缓存的秒杀时间判断，不查询数据库
+        SeckillVoucher seckillVoucher = seckillVoucherService.getCachedSeckillVoucher(voucherId);
+        if (seckillVoucher != null) {
+            LocalDateTime now = LocalDateTime.now();
+            if (now.isBefore(seckillVoucher.getBeginTime())) {
+                return Result.fail("秒杀未开始！");
+            }
+            if (now.isAfter(seckillVoucher.getEndTime())) {
+                seckillFlags.markEnded(voucherId);
+                return Result.fail("秒杀已结束！");
+            }
+            // 按库存限流，超出的请求直接拒绝，不访问redis
+            if (!seckillLimiter.tryAcquire(voucherId, seckillVoucher.getStock())) {
+                return Result.fail("抢购人数过多，请稍后再试！");
+            }
+        }
+        Long userId = UserHolder.getUser().getId();
+        long orderId = redisIdWorker.nextId("order");
+        int shards = getStockShards(voucherId);
+        int r = shards > 1
+                ? seckillWithShards(voucherId, userId, orderId, shards)
+                : seckillWithoutShards(voucherId, userId, orderId);
+        if (r != 0) {
+            updateSeckillFlags(voucherId, r, shards);
+            return Result.fail(seckillFailMessage(r));
         }
-        if (seckillVoucher.getStock() < 1) {
-            return Result.fail("库存不足！");
+        // 订单状态：排队中，查询时只返回给下单用户
+        try {
+            seckillOrderStatus.savePending(orderId, userId);
+        } catch (RuntimeException e) {
+            // 订单已经进入消息队列，下单线程处理后会写入结果
+            log.warn("保存订单排队状态失败，orderId = {}：{}", orderId, e.getMessage());
         }
+        // 有购买资格，订单由下单线程从消息队列中读取后异步写入数据库，这里直接返回订单id
+        return Result.ok(orderId);
+    }
+
+    @Override
+    public DeferredResult<Result> queryOrderStatus(Long orderId, boolean wait) {
         Long userId = UserHolder.getUser().getId();
+        if (wait) {
+            return seckillOrderStatus.await(orderId, userId, orderStatusWaitMs);
+        }
+        DeferredResult<Result> result = new DeferredResult<>();
+        result.setResult(Result.ok(seckillOrderStatus.get(orderId, userId)));
+        return result;
+    }
 
-        // 创建锁对象
-        // SimpleRedisLock lock = new SimpleRedisLock("order:" + userId, redisTemplate);
+    @Override
+    public Result querySeckillLimiterStats(Long voucherId) {
+        return Result.ok(seckillLimiter.stats(voucherId));
+    }
 
-        RLock lock = redissonClient.getLock("lock:order:" + userId);
-        //锁超时时间一般是业务执行时间的10倍
-        boolean isLock = lock.tryLock();  // 无参表示不重试 超时时间默认
-        if (!isLock) {
-            // 获取锁失败，应该按业务返回错误或者重试，此处返回失败，因为为获取成功，说明该用户在别的线程中获取锁了
-            return Result.fail("一个人只允许下一单，不允许重复下单！");
+    /**
+     * 本地标记对应的lua脚本返回值
+     *
+     * @param flag
+     * @return
+     */
+    private int flagToResult(int flag) {
+        if ((flag & SeckillFlags.ENDED) != 0) {
+            return 4;
+        }
+        if ((flag & SeckillFlags.SOLD_OUT) != 0) {
+            return 1;
+        }
+        return 3;
+    }
+
+    /**
+     * 根据lua脚本返回值更新本地标记：售罄、结束广播给所有节点，未开始只记录在本地
+     *
+     * @param voucherId
+     * @param r
+     * @param shards
+     */
+    private void updateSeckillFlags(Long voucherId, int r, int shards) {
+        switch (r) {
+            case 1:
+                seckillFlags.markSoldOut(voucherId);
+                break;
+            case 3:
+                // 本地缓存中没有该秒杀券时才会走到这里，从redis读取开始时间
+                String key = shards > 1
+                        ? String.format(SECKILL_STOCK_SHARD_KEY, voucherId, 0)
+                        : SECKILL_STOCK_KEY + voucherId;
+                Object begin = redisTemplate.opsForHash().get(key, "begin");
+                if (begin != null) {
+                    seckillFlags.markNotStarted(voucherId, Long.parseLong(begin.toString()));
+                }
+                break;
+            case 4:
+                seckillFlags.markEnded(voucherId);
+                break;
+            default:
+                break;
+        }
+    }
+
+    /**
+     * 不分片的秒杀资格判断
+     *
+     * @param voucherId
+     * @param userId
+     * @param orderId
+     * @return lua脚本返回值
+     */
+    private int seckillWithoutShards(Long voucherId, Long userId, long orderId) {
+        // 执行lua脚本：时间、库存、一人一单的判断，扣减库存以及发送订单消息都在redis中原子完成，不再访问数据库
+        Long result = redisTemplate.execute(
+                SECKILL_SCRIPT,
+                Arrays.asList(SECKILL_STOCK_KEY + voucherId, SECKILL_ORDER_KEY + voucherId, SECKILL_ORDER_STREAM_KEY),
+                userId.toString(), voucherId.toString(), String.valueOf(System.currentTimeMillis()),
+                String.valueOf(orderId), String.valueOf(orderMaxBacklog)
+        );
+        return result == null ? 1 : result.intValue();
+    }
+
+    /**
+     * 分片库存的秒杀资格判断：先在用户所属的分片上判断并扣减，该分片库存不足时依次从其它分片扣减，
+     * 每个脚本只操作同一个slot的key，可以在redis集群下使用；订单消息在扣减成功后单独发送，发送失败时归还库存
+     *
+     * @param voucherId
+     * @param userId
+     * @param orderId
+     * @param shards
+     * @return lua脚本返回值
+     */
+    private int seckillWithShards(Long voucherId, Long userId, long orderId, int shards) {
+        Long backlog = redisTemplate.opsForStream().size(SECKILL_ORDER_STREAM_KEY);
+        if (backlog != null && backlog >= orderMaxBacklog) {
+            return 5;
+        }
+        int home = (int) Math.floorMod(userId, (long) shards);
+        String homeOrderKey = String.format(SECKILL_ORDER_SHARD_KEY, voucherId, home);
+        Long result = redisTemplate.execute(
+                SECKILL_SHARD_SCRIPT,
+                Arrays.asList(String.format(SECKILL_STOCK_SHARD_KEY, voucherId, home), homeOrderKey),
+                userId.toString(), String.valueOf(System.currentTimeMillis())
+        );
+        int r = result == null ? 1 : result.intValue();
+        int shard = home;
+        if (r == 6) {
+            // 所属分片库存不足，已占用下单资格，从其它分片扣减库存
+            shard = takeFromOtherShards(voucherId, home, shards);
+            if (shard < 0) {
+                redisTemplate.opsForSet().remove(homeOrderKey, userId.toString());
+                return 1;
+            }
+            r = 0;
+        }
+        if (r != 0) {
+            return r;
         }
+        // 发送订单消息 XADD stream.orders * userId voucherId id
+        Map<String, String> order = new HashMap<>();
+        order.put("userId", userId.toString());
+        order.put("voucherId", voucherId.toString());
+        order.put("id", String.valueOf(orderId));
+        // 扣减库存的分片，下单失败时归还到该分片
+        order.put("shard", String.valueOf(shard));
         try {
-            // 获取当前对象的代理对象
-            IVoucherOrderService proxy = (IVoucherOrderService) AopContext.currentProxy();
-            return proxy.createVoucherOrder(voucherId);
-        } finally {
-            lock.unlock();
+            redisTemplate.opsForStream().add(StreamRecords.newRecord().in(SECKILL_ORDER_STREAM_KEY).ofMap(order));
+        } catch (RuntimeException e) {
+            // 归还库存和下单资格
+            redisTemplate.opsForHash().increment(String.format(SECKILL_STOCK_SHARD_KEY, voucherId, shard), "stock", 1);
+            redisTemplate.opsForSet().remove(homeOrderKey, userId.toString());
+            throw e;
         }
+        return 0;
     }
 
     /**
-     * 创建订单
+     * 从其它分片扣减一个库存
+     *
+     * @param voucherId
+     * @param home 用户所属的分片
+     * @param shards
+     * @return 扣减成功的分片，所有分片都没有库存时返回-1
+     */
+    private int takeFromOtherShards(Long voucherId, int home, int shards) {
+        for (int i = 1; i < shards; i++) {
+            int shard = (home + i) % shards;
+            Long result = redisTemplate.execute(
+                    SECKILL_SHARD_TAKE_SCRIPT,
+                    Collections.singletonList(String.format(SECKILL_STOCK_SHARD_KEY, voucherId, shard))
+            );
+            if (result != null && result == 0) {
+                return shard;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * 获取优惠券的库存分片数：保存在数据库中，从秒杀券的本地缓存读取
      *
      * @param voucherId
      * @return
      */
-    @Transactional
-    public Result createVoucherOrder(Long voucherId) {
-        // 一人一单：在扣减库存前，判断用户是否下过单了
-        Long userId = UserHolder.getUser().getId();
-        int count = query().eq("voucher_id", voucherId).eq("user_id", userId).count();
-        if (count > 0) {
-            return Result.fail("该用户已经购买过了！");
+    private int getStockShards(Long voucherId) {
+        return seckillVoucherService.getStockShards(voucherId);
+    }
+
+    /**
+     * lua脚本返回值对应的失败信息
+     *
+     * @param r
+     * @return
+     */
+    private String seckillFailMessage(int r) {
+        switch (r) {
+            case 2:
+                return "不能重复下单！";
+            case 3:
+                return "秒杀未开始！";
+            case 4:
+                return "秒杀已结束！";
+            case 5:
+                return "系统繁忙，请稍后再试！";
+            case 7:
+                return "秒杀券还未准备好，请稍后再试！";
+            default:
+                return "库存不足！";
         }
+    }
 
-        // 扣减库存
+    /**
+     * 创建订单：购买资格已经在redis中判断过了，这里只负责扣减数据库库存并保存订单
+     *
+     * @param voucherOrder
+     */
+    @Override
+    @Transactional
+    public boolean createVoucherOrder(VoucherOrder voucherOrder) {
+        // 扣减库存，stock > 0 兜底防止超卖
         boolean success = seckillVoucherService.update()
-                .setSql("stock = stock - 1")    // set stock = stock - 1
-                .eq("voucher_id", voucherId).gt("stock", 0) // voucher_id = ? and stock > 0
+                .setSql("stock = stock - 1")
+                .eq("voucher_id", voucherOrder.getVoucherId()).gt("stock", 0)
                 .update();
         if (!success) {
-            return Result.fail("库存不足！");
+            log.error("库存不足！voucherId = {}", voucherOrder.getVoucherId());
+            return false;
         }
+        // 保存订单
+        return save(voucherOrder);
+    }
 
-        // 创建订单
-        VoucherOrder voucherOrder = new VoucherOrder();
-        long orderId = redisIdWorker.nextId("order");
-        voucherOrder.setId(orderId);
-        voucherOrder.setVoucherId(voucherId);
-        voucherOrder.setUserId(userId);
-        save(voucherOrder);
-        return Result.ok(orderId);
+    /**
+     * 批量创建订单：一条多行insert写入所有订单，每个优惠券只执行一次 stock = stock - k
+     *
+     * @param voucherOrders
+     */
+    @Override
+    @Transactional
+    public void createVoucherOrders(List<VoucherOrder> voucherOrders) {
+        // 批量保存订单，订单已存在时抛出DuplicateKeyException，整个事务回滚
+        getBaseMapper().insertBatch(voucherOrders);
+        // 按优惠券合并扣减库存
+        Map<Long, Long> countByVoucher = voucherOrders.stream()
+                .collect(Collectors.groupingBy(VoucherOrder::getVoucherId, Collectors.counting()));
+        countByVoucher.forEach((voucherId, count) -> {
+            boolean success = seckillVoucherService.update()
+                    .setSql("stock = stock - " + count)
+                    .eq("voucher_id", voucherId).ge("stock", count)
+                    .update();
+            if (!success) {
+                throw new IllegalStateException("库存不足！voucherId = " + voucherId + ", count = " + count);
+            }
+        });
     }
 }
@@ -1,5 +1,6 @@
 package com.hmdp.service.impl;
 
+import cn.hutool.core.bean.BeanUtil;
 import com.baomidou.mybatisplus.extension.service.impl.ServiceImpl;
 import com.hmdp.dto.Result;
 import com.hmdp.entity.Voucher;
@@ -7,12 +8,33 @@ import com.hmdp.mapper.VoucherMapper;
 import com.hmdp.entity.SeckillVoucher;
 import com.hmdp.service.ISeckillVoucherService;
 import com.hmdp.service.IVoucherService;
+import com.hmdp.utils.CacheEvict;
+import com.hmdp.utils.Cached;
+import com.hmdp.utils.SeckillFlags;
+import com.hmdp.utils.SeckillLimiter;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.aop.framework.AopContext;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
 
 import javax.annotation.Resource;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
 
+import static com.hmdp.utils.RedisConstants.CACHE_VOUCHER_SHOP_KEY;
+import static com.hmdp.utils.RedisConstants.CACHE_VOUCHER_SHOP_TTL;
+import static com.hmdp.utils.RedisConstants.SECKILL_STOCK_KEY;
+import static com.hmdp.utils.RedisConstants.SECKILL_STOCK_SHARD_KEY;
+
 /**
  * <p>
  *  服务实现类
@@ -21,22 +43,84 @@ import java.util.List;
  * @author 虎哥
  * @since 2021-12-22
  */
+@Slf4j
 @Service
 public class VoucherServiceImpl extends ServiceImpl<VoucherMapper, Voucher> implements IVoucherService {
 
     @Resource
     private ISeckillVoucherService seckillVoucherService;
 
+    @Resource
+    private StringRedisTemplate redisTemplate;
+
+    @Resource
+    private SeckillFlags seckillFlags;
+
+    @Resource
+    private SeckillLimiter seckillLimiter;
+
+    /**
+     * 补充秒杀库存lua脚本
+     */
+    private static final DefaultRedisScript<Long> SECKILL_STOCK_ADD_SCRIPT;
+
+    static {
+        SECKILL_STOCK_ADD_SCRIPT = new DefaultRedisScript<>();
+        SECKILL_STOCK_ADD_SCRIPT.setLocation(new ClassPathResource("seckill_stock_add.lua"));
+        SECKILL_STOCK_ADD_SCRIPT.setResultType(Long.class);
+    }
+
     @Override
     public Result queryVoucherOfShop(Long shopId) {
-        // 查询优惠券信息
-        List<Voucher> vouchers = getBaseMapper().queryVoucherOfShop(shopId);
+        // 查询优惠券信息，通过代理对象调用才能使用缓存
+        IVoucherService proxy = (IVoucherService) AopContext.currentProxy();
+        List<Voucher> cached = proxy.listVoucherOfShop(shopId);
+        // 秒杀券的库存不缓存，读取redis中的实时库存；缓存的对象可能被其它请求共享，复制后再设置
+        List<Voucher> vouchers = new ArrayList<>(cached.size());
+        for (Voucher voucher : cached) {
+            if (Integer.valueOf(1).equals(voucher.getType())) {
+                voucher = BeanUtil.copyProperties(voucher, Voucher.class);
+                voucher.setStock(currentStock(voucher.getId()));
+            }
+            vouchers.add(voucher);
+        }
         // 返回结果
         return Result.ok(vouchers);
     }
 
+    @Override
+    @Cached(prefix = CACHE_VOUCHER_SHOP_KEY, ttl = CACHE_VOUCHER_SHOP_TTL)
+    public List<Voucher> listVoucherOfShop(Long shopId) {
+        List<Voucher> vouchers = getBaseMapper().queryVoucherOfShop(shopId);
+        // 库存随下单、补充库存变化，不放入缓存
+        vouchers.forEach(voucher -> voucher.setStock(null));
+        return vouchers;
+    }
+
+    /**
+     * 秒杀券的实时库存：以redis为准，redis中没有库存（还未预热或数据丢失）时查询数据库
+     *
+     * @param voucherId
+     * @return
+     */
+    private Integer currentStock(Long voucherId) {
+        Integer stock = redisStock(voucherId);
+        if (stock != null) {
+            return stock;
+        }
+        SeckillVoucher seckillVoucher = seckillVoucherService.getById(voucherId);
+        return seckillVoucher == null ? null : seckillVoucher.getStock();
+    }
+
+    @Override
+    @CacheEvict(prefix = CACHE_VOUCHER_SHOP_KEY, key = "voucher.shopId")
+    public boolean save(Voucher voucher) {
+        return super.save(voucher);
+    }
+
     @Override
     @Transactional
+    @CacheEvict(prefix = CACHE_VOUCHER_SHOP_KEY, key = "voucher.shopId")
     public void addSeckillVoucher(Voucher voucher) {
         // 保存优惠券
         save(voucher);
@@ -46,6 +130,142 @@ public class VoucherServiceImpl extends ServiceImpl<VoucherMapper, Voucher> impl
         seckillVoucher.setStock(voucher.getStock());
         seckillVoucher.setBeginTime(voucher.getBeginTime());
         seckillVoucher.setEndTime(voucher.getEndTime());
+        // 分片数保存在数据库中，redis数据丢失后按原来的分片数重新加载
+        seckillVoucher.setStockShards(voucher.getStockShards() == null ? 1 : Math.max(1, voucher.getStockShards()));
         seckillVoucherService.save(seckillVoucher);
+        // redis和本地状态在事务提交后再修改，事务回滚时redis中不会有数据库中不存在的秒杀券
+        afterCommit(() -> {
+            // 保存秒杀库存及时间到redis，秒杀资格判断直接在redis中完成
+            seckillVoucherService.loadStock(seckillVoucher);
+            // 缓存秒杀券的开始、结束时间
+            seckillVoucherService.cacheSeckillVoucher(seckillVoucher);
+            // 全局预算的上限保存在redis中，所有节点共享
+            seckillLimiter.initBudget(voucher.getId(), voucher.getStock());
+            // 库存加载之前到达的请求可能已经标记了售罄，清除所有节点的标记
+            seckillFlags.reset(voucher.getId());
+        });
+    }
+
+    @Override
+    @Transactional
+    public Result addSeckillStock(Long voucherId, Integer count) {
+        if (count == null || count <= 0) {
+            return Result.fail("补充的库存必须大于0！");
+        }
+        boolean success = seckillVoucherService.update()
+                .setSql("stock = stock + " + count)
+                .eq("voucher_id", voucherId)
+                .update();
+        if (!success) {
+            return Result.fail("秒杀券不存在！");
+        }
+        // 事务提交后再增加redis中的库存，提交失败时redis中不会多出数据库中没有的库存
+        afterCommit(() -> addRedisStock(voucherId, count));
+        return Result.ok();
+    }
+
+    /**
+     * 补充的库存已提交到数据库后，增加redis中的库存，并通知所有节点
+     *
+     * @param voucherId
+     * @param count
+     */
+    private void addRedisStock(Long voucherId, int count) {
+        String key = SECKILL_STOCK_KEY + voucherId;
+        int shards = seckillVoucherService.getStockShards(voucherId);
+        boolean loaded;
+        if (shards <= 1) {
+            loaded = addStock(key, count);
+        } else {
+            // 补充的库存同样平均分到各个分片
+            loaded = true;
+            for (int i = 0; i < shards; i++) {
+                int shardCount = count / shards + (i < count % shards ? 1 : 0);
+                if (shardCount > 0) {
+                    loaded &= addStock(String.format(SECKILL_STOCK_SHARD_KEY, voucherId, i), shardCount);
+                }
+            }
+        }
+        if (!loaded) {
+            // redis中没有完整的库存（还未预热或数据丢失），重新加载：数据库的库存还没有减去消息队列中的订单，不能直接使用
+            log.warn("redis中没有完整的秒杀库存，重新加载，voucherId = {}", voucherId);
+            seckillVoucherService.reloadStock(voucherId);
+        }
+        // 增加全局预算的上限
+        seckillLimiter.addStock(voucherId, count);
+        // 清除所有节点的售罄标记，所有节点删除缓存的秒杀券并按新库存重新创建限流器
+        seckillFlags.stockAdded(voucherId);
+        // 替换本节点缓存的秒杀券
+        SeckillVoucher seckillVoucher = seckillVoucherService.getById(voucherId);
+        if (seckillVoucher != null) {
+            seckillVoucherService.cacheSeckillVoucher(seckillVoucher);
+        }
+    }
+
+    /**
+     * 在事务提交后执行，没有事务时立即执行
+     *
+     * @param task
+     */
+    private static void afterCommit(Runnable task) {
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    task.run();
+                }
+            });
+        } else {
+            task.run();
+        }
+    }
+
+    /**
+     * 增加redis中的库存，库存hash不完整时不增加
+     *
+     * @param key
+     * @param count
+     * @return 是否已加载
+     */
+    private boolean addStock(String key, int count) {
+        Long stock = redisTemplate.execute(SECKILL_STOCK_ADD_SCRIPT, Collections.singletonList(key), String.valueOf(count));
+        return stock != null && stock >= 0;
+    }
+
+    @Override
+    public Result querySeckillStock(Long voucherId) {
+        Integer stock = redisStock(voucherId);
+        return Result.ok(stock == null ? 0 : stock);
+    }
+
+    /**
+     * 读取redis中的库存，分片库存汇总所有分片
+     *
+     * @param voucherId
+     * @return redis中没有库存时返回null
+     */
+    private Integer redisStock(Long voucherId) {
+        String key = SECKILL_STOCK_KEY + voucherId;
+        List<Object> values = redisTemplate.opsForHash().multiGet(key, Arrays.asList("stock", "shards"));
+        if (values.get(1) == null) {
+            // 不分片
+            return values.get(0) == null ? null : Integer.parseInt(values.get(0).toString());
+        }
+        // 分片：管道批量读取所有分片的库存并汇总
+        int shards = Integer.parseInt(values.get(1).toString());
+        List<Object> stocks = redisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            for (int i = 0; i < shards; i++) {
+                connection.hGet(String.format(SECKILL_STOCK_SHARD_KEY, voucherId, i).getBytes(StandardCharsets.UTF_8),
+                        "stock".getBytes(StandardCharsets.UTF_8));
+            }
+            return null;
+        });
+        int stock = 0;
+        for (Object shardStock : stocks) {
+            if (shardStock != null) {
+                stock += Integer.parseInt(shardStock.toString());
+            }
+        }
+        return stock;
     }
 }
@@ -0,0 +1,64 @@
+package com.hmdp.utils;
+
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.datatype.jsr310.JavaTimeModule;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.lang.reflect.Type;
+import java.nio.ByteBuffer;
+
+/**
+ * 二进制编码：1字节格式标识 + 8字节逻辑过期时间（毫秒） + 数据
+ * 过期时间直接从头部读取，数据只解析一次，直接解析成目标类型
+ * 格式标识0xC1在UTF-8中不会出现，不会和JSON格式的缓存混淆
+ */
+@Component
+public class BinaryCacheCodec implements CacheCodec {
+
+    public static final String NAME = "binary";
+
+    private static final byte MAGIC = (byte) 0xC1;
+    private static final int HEADER_LENGTH = 1 + Long.BYTES;
+
+    private final ObjectMapper objectMapper = new ObjectMapper()
+            .registerModule(new JavaTimeModule())
+            .configure(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false);
+
+    @Override
+    public String name() {
+        return NAME;
+    }
+
+    @Override
+    public byte[] encode(Object data, long expireMillis) {
+        try {
+            byte[] payload = objectMapper.writeValueAsBytes(data);
+            return ByteBuffer.allocate(HEADER_LENGTH + payload.length)
+                    .put(MAGIC)
+                    .putLong(expireMillis)
+                    .put(payload)
+                    .array();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    @Override
+    public boolean supports(byte[] bytes) {
+        return bytes.length >= HEADER_LENGTH && bytes[0] == MAGIC;
+    }
+
+    @Override
+    public <R> CacheValue<R> decode(byte[] bytes, Type type, boolean logicExpire) {
+        long expireMillis = ByteBuffer.wrap(bytes, 1, Long.BYTES).getLong();
+        try {
+            R data = objectMapper.readValue(bytes, HEADER_LENGTH, bytes.length - HEADER_LENGTH, objectMapper.constructType(type));
+            return new CacheValue<>(data, expireMillis);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+}
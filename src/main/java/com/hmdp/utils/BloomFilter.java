@@ -0,0 +1,111 @@
+package com.hmdp.utils;
+
+import cn.hutool.core.lang.hash.MurmurHash;
+
+import java.nio.charset.StandardCharsets;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 本地布隆过滤器：判断id是否可能存在，不存在的id直接拒绝，不访问redis和数据库
+ * 位数组大小和哈希函数个数由预计元素个数和误判率计算，线程安全
+ */
+public class BloomFilter {
+
+    private final long expectedInsertions;
+    private final double fpp;
+    private final long bitSize;
+    private final int hashFunctions;
+    private final AtomicLongArray bits;
+
+    /**
+     * 已添加的元素个数（重复添加也会计数）
+     */
+    private final LongAdder insertions = new LongAdder();
+    /**
+     * 被过滤器拦截的查询次数
+     */
+    private final LongAdder rejections = new LongAdder();
+
+    public BloomFilter(long expectedInsertions, double fpp) {
+        this.expectedInsertions = Math.max(1, expectedInsertions);
+        this.fpp = fpp;
+        // m = -n * ln(p) / (ln2)^2，k = m / n * ln2
+        long size = (long) (-this.expectedInsertions * Math.log(fpp) / (Math.log(2) * Math.log(2)));
+        this.bitSize = Math.max(64, (size + 63) / 64 * 64);
+        this.hashFunctions = Math.max(1, (int) Math.round((double) bitSize / this.expectedInsertions * Math.log(2)));
+        this.bits = new AtomicLongArray((int) (bitSize / 64));
+    }
+
+    public void put(Object id) {
+        long[] hash = hash(id);
+        for (int i = 0; i < hashFunctions; i++) {
+            long index = index(hash, i);
+            int word = (int) (index >>> 6);
+            long mask = 1L << index;
+            long old;
+            do {
+                old = bits.get(word);
+                if ((old & mask) != 0) {
+                    break;
+                }
+            } while (!bits.compareAndSet(word, old, old | mask));
+        }
+        insertions.increment();
+    }
+
+    public boolean mightContain(Object id) {
+        long[] hash = hash(id);
+        for (int i = 0; i < hashFunctions; i++) {
+            long index = index(hash, i);
+            if ((bits.get((int) (index >>> 6)) & (1L << index)) == 0) {
+                rejections.increment();
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * 已置位的比例，越接近1误判率越高
+     */
+    public double fillRatio() {
+        long bitCount = 0;
+        for (int i = 0; i < bits.length(); i++) {
+            bitCount += Long.bitCount(bits.get(i));
+        }
+        return (double) bitCount / bitSize;
+    }
+
+    /**
+     * 统计信息：配置、内存大小、当前估算的误判率
+     */
+    public Map<String, Object> stats() {
+        double fillRatio = fillRatio();
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("expectedInsertions", expectedInsertions);
+        stats.put("fpp", fpp);
+        stats.put("bitSize", bitSize);
+        stats.put("memoryBytes", bitSize / 8);
+        stats.put("hashFunctions", hashFunctions);
+        stats.put("insertions", insertions.sum());
+        stats.put("rejections", rejections.sum());
+        // 已置位比例的k次方即当前的误判率
+        stats.put("fillRatio", fillRatio);
+        stats.put("estimatedFpp", Math.pow(fillRatio, hashFunctions));
+        return stats;
+    }
+
+    private static long[] hash(Object id) {
+        return MurmurHash.hash128(String.valueOf(id).getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * 双重哈希：h1 + i * h2 模拟k个哈希函数
+     */
+    private long index(long[] hash, int i) {
+        return ((hash[0] + i * hash[1]) & Long.MAX_VALUE) % bitSize;
+    }
+}
@@ -0,0 +1,138 @@
+package com.hmdp.utils;
+
+import cn.hutool.core.util.StrUtil;
+import org.aspectj.lang.JoinPoint;
+import org.aspectj.lang.ProceedingJoinPoint;
+import org.aspectj.lang.annotation.AfterReturning;
+import org.aspectj.lang.annotation.Around;
+import org.aspectj.lang.annotation.Aspect;
+import org.aspectj.lang.reflect.MethodSignature;
+import org.springframework.aop.support.AopUtils;
+import org.springframework.beans.BeanUtils;
+import org.springframework.core.DefaultParameterNameDiscoverer;
+import org.springframework.core.ParameterNameDiscoverer;
+import org.springframework.stereotype.Component;
+import org.springframework.util.ReflectionUtils;
+
+import java.beans.PropertyDescriptor;
+import java.lang.reflect.Method;
+import java.lang.reflect.Type;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
+
+/**
+ * 缓存注解@Cached、@CacheEvict的切面，通过CacheClient读缓存、通过CacheInvalidator删除缓存
+ * 每个方法的返回值类型和key的取值方式只解析一次，保存在CachedOperation中
+ */
+@Aspect
+@Component
+public class CacheAspect {
+
+    private final CacheClient cacheClient;
+
+    private final CacheInvalidator cacheInvalidator;
+
+    private final ParameterNameDiscoverer parameterNameDiscoverer = new DefaultParameterNameDiscoverer();
+
+    /**
+     * 方法 -> 解析好的读缓存操作
+     */
+    private final Map<Method, CachedOperation> cachedOperations = new ConcurrentHashMap<>();
+
+    /**
+     * 方法 -> 解析好的删除缓存操作
+     */
+    private final Map<Method, CachedOperation> evictOperations = new ConcurrentHashMap<>();
+
+    public CacheAspect(CacheClient cacheClient, CacheInvalidator cacheInvalidator) {
+        this.cacheClient = cacheClient;
+        this.cacheInvalidator = cacheInvalidator;
+    }
+
+    @Around("@annotation(cached)")
+    public Object cached(ProceedingJoinPoint joinPoint, Cached cached) throws Throwable {
+        CachedOperation operation = operation(cachedOperations, joinPoint, cached.prefix(), cached.key());
+        Object id = operation.key.apply(joinPoint.getArgs());
+        if (id == null) {
+            // 没有key时不缓存
+            return joinPoint.proceed();
+        }
+        return cacheClient.query(cached.strategy(), operation.prefix, id, operation.type,
+                key -> proceed(joinPoint), cached.ttl(), cached.unit());
+    }
+
+    @AfterReturning("@annotation(cacheEvict)")
+    public void evict(JoinPoint joinPoint, CacheEvict cacheEvict) {
+        CachedOperation operation = operation(evictOperations, joinPoint, cacheEvict.prefix(), cacheEvict.key());
+        Object id = operation.key.apply(joinPoint.getArgs());
+        if (id != null) {
+            cacheInvalidator.invalidate(operation.prefix + id);
+        }
+    }
+
+    private CachedOperation operation(Map<Method, CachedOperation> operations, JoinPoint joinPoint, String prefix, String key) {
+        Method method = ((MethodSignature) joinPoint.getSignature()).getMethod();
+        return operations.computeIfAbsent(method, m -> {
+            // 实现类上的方法才有参数名
+            Method targetMethod = joinPoint.getTarget() == null ? m : AopUtils.getMostSpecificMethod(m, joinPoint.getTarget().getClass());
+            return new CachedOperation(prefix, targetMethod.getGenericReturnType(), keyResolver(targetMethod, key));
+        });
+    }
+
+    /**
+     * 根据key的配置生成取值函数：参数名，或者 参数名.属性名，为空时使用第一个参数
+     */
+    private Function<Object[], Object> keyResolver(Method method, String key) {
+        if (StrUtil.isBlank(key)) {
+            if (method.getParameterCount() == 0) {
+                throw new IllegalStateException("缓存的key为空：" + method);
+            }
+            return args -> args[0];
+        }
+        String[] parts = key.split("\\.", 2);
+        String[] names = parameterNameDiscoverer.getParameterNames(method);
+        int index = names == null ? -1 : Arrays.asList(names).indexOf(parts[0]);
+        if (index < 0) {
+            throw new IllegalStateException("缓存的key参数不存在：" + method + "，key = " + key);
+        }
+        if (parts.length == 1) {
+            return args -> args[index];
+        }
+        PropertyDescriptor property = BeanUtils.getPropertyDescriptor(method.getParameterTypes()[index], parts[1]);
+        if (property == null || property.getReadMethod() == null) {
+            throw new IllegalStateException("缓存的key属性不存在：" + method + "，key = " + key);
+        }
+        Method getter = property.getReadMethod();
+        return args -> args[index] == null ? null : ReflectionUtils.invokeMethod(getter, args[index]);
+    }
+
+    private static Object proceed(ProceedingJoinPoint joinPoint) {
+        try {
+            return joinPoint.proceed();
+        } catch (RuntimeException | Error e) {
+            throw e;
+        } catch (Throwable e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * 一个方法的缓存操作
+     */
+    private static class CachedOperation {
+        private final String prefix;
+        /**
+         * 返回值类型，包括泛型参数，用于反序列化
+         */
+        private final Type type;
+        private final Function<Object[], Object> key;
+
+        CachedOperation(String prefix, Type type, Function<Object[], Object> key) {
+            this.prefix = prefix;
+            this.type = type;
+            this.key = key;
+        }
+    }
+}
@@ -1,26 +1,626 @@
 package com.hmdp.utils;
 
-import cn.hutool.core.util.BooleanUtil;
-import cn.hutool.core.util.StrUtil;
-import cn.hutool.json.JSONObject;
-import cn.hutool.json.JSONUtil;
+import cn.hutool.cache.CacheUtil;
+import cn.hutool.cache.impl.LRUCache;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.QueryTimeoutException;
+import org.springframework.data.redis.RedisConnectionFailureException;
+import org.springframework.data.redis.RedisSystemException;
+import org.springframework.data.redis.connection.Message;
+import org.springframework.data.redis.connection.MessageListener;
+import org.springframework.data.redis.connection.RedisStringCommands;
+import org.springframework.data.redis.core.RedisCallback;
 import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.types.Expiration;
 import org.springframework.stereotype.Component;
 
-import java.time.LocalDateTime;
-import java.util.concurrent.ExecutorService;
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.lang.reflect.Type;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadLocalRandom;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.LongAdder;
 import java.util.function.Function;
+import java.util.function.Supplier;
 
 import static com.hmdp.utils.RedisConstants.*;
 
+/**
+ * 缓存工具：本地缓存（一级） + redis（二级）
+ * 本地缓存容量有限、有效期很短，数据修改时通过evict删除redis并广播，所有节点删除本地缓存
+ * 缓存雪崩：有效期随机增加一部分；查询数据库限制并发数；redis不可用或数据库繁忙时返回本地保存的旧数据
+ */
+@Slf4j
 @Component
-public class CacheClient {
+public class CacheClient implements MessageListener {
     private final StringRedisTemplate redisTemplate;
 
-    public CacheClient(StringRedisTemplate redisTemplate) {
+    /**
+     * 逻辑过期缓存的重建线程池，负责去重和提前重建
+     */
+    private final CacheRefresher cacheRefresher;
+
+    /**
+     * 热点key探测，热点key即使没有启用本地缓存也会保存在本节点
+     */
+    private final HotKeyDetector hotKeyDetector;
+
+    /**
+     * 按key前缀统计命中率、重建耗时、锁竞争
+     */
+    private final CacheMetrics cacheMetrics;
+
+    /**
+     * 超过阈值的缓存值压缩后保存
+     */
+    private final CacheCompressor cacheCompressor;
+
+    /**
+     * 本地缓存中表示空值的对象，防止缓存穿透的空值同样可以在本地命中
+     */
+    private static final Object NULL_VALUE = new Object();
+
+    /**
+     * 布隆过滤器新增消息中前缀与id的分隔符
+     */
+    private static final String BLOOM_SEPARATOR = "|";
+
+    /**
+     * 本地缓存：key -> 反序列化后的对象，超过容量时淘汰最近最少使用的
+     */
+    private final LRUCache<String, Object> localCache;
+
+    /**
+     * key前缀 -> 布隆过滤器，没有布隆过滤器的前缀不做判断
+     */
+    private final Map<String, BloomFilter> bloomFilters = new ConcurrentHashMap<>();
+
+    /**
+     * key前缀 -> 查询所有已存在id的函数，定时用它重建布隆过滤器
+     */
+    private final Map<String, Supplier<? extends Collection<?>>> bloomLoaders = new ConcurrentHashMap<>();
+
+    /**
+     * key前缀 -> 重建期间新增的id，重建完成后补充到新的布隆过滤器
+     */
+    private final Map<String, Set<Object>> bloomPendingIds = new ConcurrentHashMap<>();
+
+    /**
+     * key前缀 -> 布隆过滤器拦截的查询次数，重建过滤器后继续累计
+     */
+    private final Map<String, LongAdder> bloomRejections = new ConcurrentHashMap<>();
+
+    /**
+     * 定时重建布隆过滤器
+     */
+    private ScheduledExecutorService bloomExecutor;
+
+    /**
+     * 正在重建的key -> 重建结果，同一个jvm中相同key只重建一次
+     */
+    private final Map<String, CompletableFuture<Object>> inFlightLoads = new ConcurrentHashMap<>();
+
+    /**
+     * 互斥锁重建时每个请求最多等待的时间
+     */
+    @Value("${hmdp.cache.mutex.wait-ms:3000}")
+    private long mutexWaitMillis;
+
+    /**
+     * 布隆过滤器预计元素个数，实际数量更多时按实际数量的2倍创建
+     */
+    @Value("${hmdp.cache.bloom.expected-insertions:100000}")
+    private long bloomExpectedInsertions;
+
+    /**
+     * 布隆过滤器误判率
+     */
+    @Value("${hmdp.cache.bloom.fpp:0.01}")
+    private double bloomFpp;
+
+    /**
+     * 布隆过滤器重建间隔，修复丢失的新增通知造成的误判，0表示不重建
+     */
+    @Value("${hmdp.cache.bloom.rebuild-interval-seconds:600}")
+    private long bloomRebuildIntervalSeconds;
+
+    /**
+     * 有效期随机增加的最大比例，避免同时写入的key同时过期
+     */
+    @Value("${hmdp.cache.ttl-jitter-ratio:0.1}")
+    private double ttlJitterRatio;
+
+    /**
+     * 同时查询数据库的最大请求数
+     */
+    @Value("${hmdp.cache.db.max-concurrency:50}")
+    private int dbMaxConcurrency;
+
+    /**
+     * 等待查询数据库许可的最长时间
+     */
+    @Value("${hmdp.cache.db.acquire-timeout-ms:100}")
+    private long dbAcquireTimeoutMillis;
+
+    /**
+     * 本地保存的旧数据最大数量
+     */
+    @Value("${hmdp.cache.stale.capacity:10000}")
+    private int staleCapacity;
+
+    /**
+     * 查询数据库的许可
+     */
+    private Semaphore dbPermits;
+
+    /**
+     * key -> 本节点最后一次写入缓存的数据，redis不可用或数据库繁忙时返回，不过期，超过容量时淘汰最近最少使用的
+     * 只在写入、重建缓存时保存，读取时不写入，避免每次查询都获取LRUCache的锁
+     */
+    private LRUCache<String, Object> staleStore;
+
+    private final LongAdder staleServed = new LongAdder();
+    private final LongAdder dbWhileRedisDown = new LongAdder();
+    private final LongAdder dbRejected = new LongAdder();
+
+    /**
+     * 所有编解码器，解码时根据数据格式选择
+     */
+    private final List<CacheCodec> codecs;
+
+    /**
+     * 默认的编码器
+     */
+    private final CacheCodec defaultCodec;
+
+    /**
+     * key前缀 -> 编码器
+     */
+    private final Map<String, CacheCodec> prefixCodecs = new LinkedHashMap<>();
+
+    public CacheClient(StringRedisTemplate redisTemplate,
+                       CacheRefresher cacheRefresher,
+                       HotKeyDetector hotKeyDetector,
+                       CacheMetrics cacheMetrics,
+                       CacheCompressor cacheCompressor,
+                       List<CacheCodec> codecs,
+                       @Value("${hmdp.cache.local.enabled:false}") boolean localEnabled,
+                       @Value("${hmdp.cache.local.capacity:1000}") int localCapacity,
+                       @Value("${hmdp.cache.local.ttl-ms:5000}") long localTtlMillis,
+                       @Value("${hmdp.cache.codec.default:json}") String defaultCodec,
+                       @Value("${hmdp.cache.codec.prefixes:}") String[] prefixCodecs) {
         this.redisTemplate = redisTemplate;
+        this.cacheRefresher = cacheRefresher;
+        this.hotKeyDetector = hotKeyDetector;
+        this.cacheMetrics = cacheMetrics;
+        this.cacheCompressor = cacheCompressor;
+        this.localCache = localEnabled && localCapacity > 0 ? CacheUtil.newLRUCache(localCapacity, localTtlMillis) : null;
+        this.codecs = codecs;
+        this.defaultCodec = codec(defaultCodec);
+        // 格式：key前缀=编码器名称
+        for (String prefixCodec : prefixCodecs) {
+            int index = prefixCodec.lastIndexOf('=');
+            if (index > 0) {
+                this.prefixCodecs.put(prefixCodec.substring(0, index).trim(), codec(prefixCodec.substring(index + 1).trim()));
+            }
+        }
+    }
+
+    @PostConstruct
+    private void init() {
+        dbPermits = new Semaphore(dbMaxConcurrency);
+        staleStore = CacheUtil.newLRUCache(staleCapacity);
+        cacheMetrics.gauge("cache.db.permits", dbPermits::availablePermits);
+        cacheMetrics.gauge("cache.stale.size", staleStore::size);
+        if (localCache != null) {
+            cacheMetrics.gauge("cache.local.size", localCache::size);
+        }
+        cacheMetrics.gauge("cache.compress.saved.bytes", () -> (Number) cacheCompressor.stats().get("bytesSaved"));
+        bloomExecutor = Executors.newSingleThreadScheduledExecutor();
+    }
+
+    @PreDestroy
+    private void destroy() {
+        bloomExecutor.shutdownNow();
+    }
+
+    /**
+     * 有效期随机增加 [0, ttlJitterRatio) 倍
+     */
+    private long jitterMillis(long millis) {
+        if (ttlJitterRatio <= 0) {
+            return millis;
+        }
+        return millis + (long) (millis * ttlJitterRatio * ThreadLocalRandom.current().nextDouble());
+    }
+
+    /**
+     * 限制并发地查询数据库，拿不到许可或查询失败时抛出DbFallbackException，按key前缀记录查询耗时
+     */
+    private <T> T callDb(String keyPrefix, Supplier<T> dbFallback) {
+        boolean acquired;
+        try {
+            acquired = dbPermits.tryAcquire(dbAcquireTimeoutMillis, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new DbFallbackException("等待查询数据库时被中断", e);
+        }
+        if (!acquired) {
+            dbRejected.increment();
+            throw new DbFallbackException("数据库繁忙，请稍后再试", null);
+        }
+        long begin = System.nanoTime();
+        boolean success = false;
+        try {
+            T t = dbFallback.get();
+            success = true;
+            return t;
+        } catch (RuntimeException e) {
+            throw new DbFallbackException("查询数据库失败", e);
+        } finally {
+            dbPermits.release();
+            cacheMetrics.recordLoad(keyPrefix, System.nanoTime() - begin, success);
+        }
+    }
+
+    /**
+     * 执行查询，失败时降级：
+     * 数据库繁忙或查询失败 -> 返回旧数据，没有旧数据时抛出异常；
+     * redis连接失败、命令超时 -> 返回旧数据，没有旧数据时限制并发地直接查询数据库；
+     * 其它异常（等待重建超时、线程中断、反序列化失败等） -> 返回旧数据，没有旧数据时抛出异常，不绕过互斥锁查询数据库
+     */
+    private <R, ID> R queryWithDegrade(String keyPrefix, ID id, String strategy, Function<ID, R> dbFallback, Supplier<R> query) {
+        String key = keyPrefix + id;
+        R r;
+        try {
+            r = query.get();
+        } catch (RuntimeException e) {
+            Object stale = staleStore.get(key, false);
+            if (stale != null) {
+                staleServed.increment();
+                cacheMetrics.recordGet(keyPrefix, strategy, CacheMetrics.STALE);
+                return fromLocal(stale);
+            }
+            if (!isRedisUnavailable(e)) {
+                throw e instanceof DbFallbackException ? ((DbFallbackException) e).unwrap() : e;
+            }
+            log.warn("redis不可用，直接查询数据库，key = {}：{}", key, e.getMessage());
+            try {
+                r = callDb(keyPrefix, () -> dbFallback.apply(id));
+            } catch (DbFallbackException dbException) {
+                throw dbException.unwrap();
+            }
+            dbWhileRedisDown.increment();
+            putStale(key, r);
+        }
+        return r;
+    }
+
+    /**
+     * 是否是redis连接失败或命令超时，只有这种情况才绕过缓存直接查询数据库
+     */
+    private static boolean isRedisUnavailable(Throwable e) {
+        for (Throwable t = e; t != null; t = t.getCause()) {
+            if (t instanceof DbFallbackException) {
+                return false;
+            }
+            if (t instanceof RedisConnectionFailureException
+                    || t instanceof RedisSystemException
+                    || t instanceof QueryTimeoutException) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * 批量查询的降级：有旧数据的返回旧数据，其余的只在redis不可用时限制并发地查询数据库，数据库也不可用时只返回旧数据
+     */
+    private <R, ID> Map<ID, R> queryBatchWithDegrade(String keyPrefix, Collection<ID> ids,
+                                                     Function<Collection<ID>, Map<ID, R>> batchDbFallback,
+                                                     Supplier<Map<ID, R>> query) {
+        Map<ID, R> result;
+        try {
+            result = query.get();
+        } catch (RuntimeException e) {
+            Map<ID, R> found = new LinkedHashMap<>();
+            List<ID> missing = new ArrayList<>();
+            Collection<ID> distinctIds = new LinkedHashSet<>(ids);
+            for (ID id : distinctIds) {
+                Object stale = staleStore.get(keyPrefix + id, false);
+                if (stale == null) {
+                    missing.add(id);
+                } else if (stale != NULL_VALUE) {
+                    found.put(id, fromLocal(stale));
+                    staleServed.increment();
+                }
+            }
+            cacheMetrics.recordGets(keyPrefix, CacheMetrics.BATCH, CacheMetrics.STALE, found.size());
+            if (!missing.isEmpty() && isRedisUnavailable(e)) {
+                log.warn("redis不可用，直接查询数据库，key前缀 = {}：{}", keyPrefix, e.getMessage());
+                try {
+                    Map<ID, R> loaded = callDb(keyPrefix, () -> batchDbFallback.apply(missing));
+                    loaded.forEach((id, r) -> putStale(keyPrefix + id, r));
+                    found.putAll(loaded);
+                    dbWhileRedisDown.increment();
+                } catch (DbFallbackException dbException) {
+                    if (found.isEmpty()) {
+                        throw dbException.unwrap();
+                    }
+                }
+            } else if (found.isEmpty() && !missing.isEmpty()) {
+                throw e instanceof DbFallbackException ? ((DbFallbackException) e).unwrap() : e;
+            }
+            result = new LinkedHashMap<>();
+            for (ID id : distinctIds) {
+                R r = found.get(id);
+                if (r != null) {
+                    result.put(id, r);
+                }
+            }
+        }
+        return result;
+    }
+
+    private void putStale(String key, Object value) {
+        // 不保存空值，避免不存在的id挤掉有用的旧数据
+        if (value != null) {
+            staleStore.put(key, value);
+        }
+    }
+
+    /**
+     * 降级统计信息
+     */
+    public Map<String, Object> degradeStats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("staleServed", staleServed.sum());
+        stats.put("dbWhileRedisDown", dbWhileRedisDown.sum());
+        stats.put("dbRejected", dbRejected.sum());
+        stats.put("dbPermitsAvailable", dbPermits.availablePermits());
+        stats.put("staleSize", staleStore.size());
+        return stats;
+    }
+
+    /**
+     * 数据库繁忙或查询数据库失败
+     */
+    private static class DbFallbackException extends RuntimeException {
+        DbFallbackException(String message, Throwable cause) {
+            super(message, cause);
+        }
+
+        RuntimeException unwrap() {
+            return getCause() instanceof RuntimeException ? (RuntimeException) getCause() : this;
+        }
+    }
+
+    private CacheCodec codec(String name) {
+        for (CacheCodec codec : codecs) {
+            if (codec.name().equals(name)) {
+                return codec;
+            }
+        }
+        throw new IllegalArgumentException("缓存编码器不存在：" + name);
+    }
+
+    /**
+     * 按key前缀选择编码器
+     */
+    private CacheCodec encoderOf(String key) {
+        for (Map.Entry<String, CacheCodec> entry : prefixCodecs.entrySet()) {
+            if (key.startsWith(entry.getKey())) {
+                return entry.getValue();
+            }
+        }
+        return defaultCodec;
+    }
+
+    /**
+     * 按key前缀编码，超过阈值时压缩
+     */
+    private byte[] encode(String key, Object value, long expireMillis) {
+        return cacheCompressor.compress(encoderOf(key).encode(value, expireMillis));
+    }
+
+    /**
+     * 按数据格式选择解码器，编码方式切换之前写入的缓存仍然可以读取，压缩的数据先解压
+     */
+    private <R> CacheValue<R> decode(String key, byte[] bytes, Type type, boolean logicExpire) {
+        bytes = cacheCompressor.decompress(bytes);
+        for (CacheCodec codec : codecs) {
+            if (codec.supports(bytes)) {
+                return codec.decode(bytes, type, logicExpire);
+            }
+        }
+        throw new IllegalStateException("无法解码的缓存，key = " + key);
+    }
+
+    private byte[] getBytes(String key) {
+        byte[] rawKey = key.getBytes(StandardCharsets.UTF_8);
+        return redisTemplate.execute((RedisCallback<byte[]>) connection -> connection.get(rawKey));
+    }
+
+    private void setBytes(String key, byte[] value, Expiration expiration) {
+        byte[] rawKey = key.getBytes(StandardCharsets.UTF_8);
+        redisTemplate.execute((RedisCallback<Boolean>) connection ->
+                connection.set(rawKey, value, expiration, RedisStringCommands.SetOption.upsert()));
+    }
+
+    /**
+     * 用已存在的id创建布隆过滤器，之后该前缀下不存在的id不再访问redis和数据库
+     * 新增通知是发布订阅，订阅之前或连接中断期间的通知会丢失，因此按bloomRebuildIntervalSeconds定时重建；
+     * 应在订阅新增通知之后调用（例如ApplicationRunner中），创建期间收到的新增通知在创建完成后补充
+     *
+     * @param keyPrefix
+     * @param idLoader 查询该前缀下所有已存在的id
+     */
+    public void initBloomFilter(String keyPrefix, Supplier<? extends Collection<?>> idLoader) {
+        boolean first = bloomLoaders.put(keyPrefix, idLoader) == null;
+        rebuildBloomFilter(keyPrefix);
+        if (first) {
+            // 拦截次数跨重建累计，已置位比例取当前的过滤器
+            LongAdder rejections = bloomRejections.computeIfAbsent(keyPrefix, k -> new LongAdder());
+            cacheMetrics.gauge("cache.bloom.fill.ratio", keyPrefix, () -> {
+                BloomFilter bloomFilter = bloomFilters.get(keyPrefix);
+                return bloomFilter == null ? 0 : bloomFilter.fillRatio();
+            });
+            cacheMetrics.gauge("cache.bloom.rejections", keyPrefix, rejections::sum);
+        }
+        if (first && bloomRebuildIntervalSeconds > 0) {
+            bloomExecutor.scheduleWithFixedDelay(() -> {
+                try {
+                    rebuildBloomFilter(keyPrefix);
+                } catch (Exception e) {
+                    log.error("重建布隆过滤器失败，key前缀 = {}", keyPrefix, e);
+                }
+            }, bloomRebuildIntervalSeconds, bloomRebuildIntervalSeconds, TimeUnit.SECONDS);
+        }
+    }
+
+    /**
+     * 重建布隆过滤器：先记录重建期间新增的id，查询所有id创建新的过滤器并替换，再补充记录的id
+     */
+    private void rebuildBloomFilter(String keyPrefix) {
+        Set<Object> pendingIds = ConcurrentHashMap.newKeySet();
+        bloomPendingIds.put(keyPrefix, pendingIds);
+        try {
+            Collection<?> ids = bloomLoaders.get(keyPrefix).get();
+            BloomFilter bloomFilter = new BloomFilter(Math.max(bloomExpectedInsertions, ids.size() * 2L), bloomFpp);
+            ids.forEach(bloomFilter::put);
+            bloomFilters.put(keyPrefix, bloomFilter);
+            pendingIds.forEach(bloomFilter::put);
+            log.info("创建布隆过滤器，key前缀 = {}，id数量 = {}", keyPrefix, ids.size());
+        } finally {
+            bloomPendingIds.remove(keyPrefix, pendingIds);
+        }
+    }
+
+    /**
+     * 新增数据后添加到布隆过滤器，并通知所有节点添加
+     *
+     * @param keyPrefix
+     * @param id
+     */
+    public void addToBloomFilter(String keyPrefix, Object id) {
+        if (bloomLoaders.containsKey(keyPrefix)) {
+            putBloom(keyPrefix, id.toString());
+            redisTemplate.convertAndSend(CACHE_BLOOM_CHANNEL, keyPrefix + BLOOM_SEPARATOR + id);
+        }
+    }
+
+    private void putBloom(String keyPrefix, String id) {
+        Set<Object> pendingIds = bloomPendingIds.get(keyPrefix);
+        if (pendingIds != null) {
+            pendingIds.add(id);
+        }
+        BloomFilter bloomFilter = bloomFilters.get(keyPrefix);
+        if (bloomFilter != null) {
+            bloomFilter.put(id);
+        }
+    }
+
+    /**
+     * 布隆过滤器统计信息
+     *
+     * @return key前缀 -> 统计信息
+     */
+    public Map<String, Map<String, Object>> bloomFilterStats() {
+        Map<String, Map<String, Object>> stats = new LinkedHashMap<>();
+        bloomFilters.forEach((prefix, bloomFilter) -> stats.put(prefix, bloomFilter.stats()));
+        return stats;
+    }
+
+    /**
+     * id是否可能存在，没有布隆过滤器时返回true
+     */
+    private boolean mightContain(String keyPrefix, Object id) {
+        BloomFilter bloomFilter = bloomFilters.get(keyPrefix);
+        if (bloomFilter == null || bloomFilter.mightContain(id)) {
+            return true;
+        }
+        LongAdder rejections = bloomRejections.get(keyPrefix);
+        if (rejections != null) {
+            rejections.increment();
+        }
+        return false;
+    }
+
+    /**
+     * 删除缓存：删除redis，并通知所有节点删除本地缓存
+     *
+     * @param key
+     */
+    public void evict(String key) {
+        redisTemplate.delete(key);
+        evictLocal(key);
+        redisTemplate.convertAndSend(CACHE_INVALIDATE_CHANNEL, key);
+    }
+
+    /**
+     * 接收其它节点广播的缓存删除、布隆过滤器新增消息
+     */
+    @Override
+    public void onMessage(Message message, byte[] pattern) {
+        String body = new String(message.getBody(), StandardCharsets.UTF_8);
+        if (CACHE_BLOOM_CHANNEL.equals(new String(message.getChannel(), StandardCharsets.UTF_8))) {
+            int index = body.lastIndexOf(BLOOM_SEPARATOR);
+            putBloom(body.substring(0, index), body.substring(index + 1));
+            return;
+        }
+        evictLocal(body);
+    }
+
+    private void evictLocal(String key) {
+        if (localCache != null) {
+            localCache.remove(key);
+        }
+        hotKeyDetector.evict(key);
+    }
+
+    /**
+     * 查询本地缓存
+     *
+     * @return 未命中返回null，命中空值返回NULL_VALUE
+     */
+    private Object getLocal(String key) {
+        // 记录访问，热点key的值在本节点保存一小段时间
+        boolean hot = hotKeyDetector.record(key);
+        Object value = localCache == null ? null : localCache.get(key, false);
+        if (value == null && hot) {
+            value = hotKeyDetector.get(key);
+        }
+        return value;
+    }
+
+    private void putLocal(String key, Object value) {
+        Object localValue = value == null ? NULL_VALUE : value;
+        if (localCache != null) {
+            localCache.put(key, localValue);
+        }
+        hotKeyDetector.put(key, localValue);
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <R> R fromLocal(Object value) {
+        return value == NULL_VALUE ? null : (R) value;
     }
 
     /**
@@ -32,7 +632,19 @@ public class CacheClient {
      * @param unit
      */
     public void set(String key, Object value, long timeout, TimeUnit unit) {
-        redisTemplate.opsForValue().set(key, JSONUtil.toJsonStr(value), timeout, unit);
+        putStale(key, value);
+        setBytes(key, encode(key, value, 0), Expiration.milliseconds(jitterMillis(unit.toMillis(timeout))));
+        evictLocal(key);
+    }
+
+    /**
+     * 缓存空值，防止缓存穿透
+     *
+     * @param key
+     */
+    private void setNull(String key) {
+        setBytes(key, new byte[0], Expiration.milliseconds(jitterMillis(TimeUnit.MINUTES.toMillis(CACHE_NULL_TTL))));
+        evictLocal(key);
     }
 
     /**
@@ -44,10 +656,53 @@ public class CacheClient {
      * @param unit
      */
     public void setWithLogicExpire(String key, Object value, long timeout, TimeUnit unit) {
-        RedisData redisData = new RedisData();
-        redisData.setData(value);
-        redisData.setExpireTime(LocalDateTime.now().plusSeconds(unit.toSeconds(timeout)));
-        redisTemplate.opsForValue().set(key, JSONUtil.toJsonStr(redisData));
+        long expireMillis = System.currentTimeMillis() + jitterMillis(unit.toMillis(timeout));
+        putStale(key, value);
+        setBytes(key, encode(key, value, expireMillis), Expiration.persistent());
+        evictLocal(key);
+        cacheRefresher.updateExpire(key, expireMillis);
+    }
+
+    /**
+     * 管道批量写入逻辑过期缓存，用于缓存预热
+     *
+     * @param keyPrefix
+     * @param values    id -> 数据
+     * @param timeout
+     * @param unit
+     */
+    public <R, ID> void setBatchWithLogicExpire(String keyPrefix, Map<ID, R> values, long timeout, TimeUnit unit) {
+        writeBatch(keyPrefix, new ArrayList<>(values.keySet()), values, timeout, unit, true);
+    }
+
+    /**
+     * 按策略查询，数据类型可以是泛型类型（如List<Voucher>），供@Cached使用
+     *
+     * @param strategy
+     * @param keyPrefix
+     * @param id
+     * @param type       数据类型
+     * @param dbFallback
+     * @param timeout
+     * @param unit
+     * @return
+     */
+    public <R, ID> R query(CacheStrategy strategy, String keyPrefix, ID id, Type type, Function<ID, R> dbFallback,
+                           long timeout, TimeUnit unit) {
+        switch (strategy) {
+            case MUTEX:
+                return queryWithDegrade(keyPrefix, id, CacheMetrics.MUTEX, dbFallback,
+                        () -> doQueryWithMutex(keyPrefix, id, type, dbFallback, timeout, unit));
+            case LOGIC_EXPIRE:
+                return queryWithDegrade(keyPrefix, id, CacheMetrics.LOGIC_EXPIRE, dbFallback,
+                        () -> doQueryWithLogicExpire(keyPrefix, id, type, dbFallback, timeout, unit, false));
+            case LOGIC_EXPIRE_OR_LOAD:
+                return queryWithDegrade(keyPrefix, id, CacheMetrics.HYBRID, dbFallback,
+                        () -> doQueryWithLogicExpire(keyPrefix, id, type, dbFallback, timeout, unit, true));
+            default:
+                return queryWithDegrade(keyPrefix, id, CacheMetrics.PASS_THROUGH, dbFallback,
+                        () -> doQueryWithPassThrough(keyPrefix, id, type, dbFallback, timeout, unit));
+        }
     }
 
     /**
@@ -57,34 +712,147 @@ public class CacheClient {
      * @return
      */
     public <R, ID> R queryWithMutex(String keyPrefix, ID id, Class<R> type, Function<ID, R> dbFallback, long timeout, TimeUnit unit) {
+        return query(CacheStrategy.MUTEX, keyPrefix, id, type, dbFallback, timeout, unit);
+    }
+
+    private <R, ID> R doQueryWithMutex(String keyPrefix, ID id, Type type, Function<ID, R> dbFallback, long timeout, TimeUnit unit) {
         String key = keyPrefix + id;
-        String json = redisTemplate.opsForValue().get(key);
-        if (StrUtil.isNotBlank(json)) {
-            return JSONUtil.toBean(json, type);
-        }
-        if (json != null) {
+        if (!mightContain(keyPrefix, id)) {
+            // 布隆过滤器判断不存在
+            cacheMetrics.recordGet(keyPrefix, CacheMetrics.MUTEX, CacheMetrics.BLOOM_REJECT);
             return null;
         }
-        String lockKey = LOCK_SHOP_KEY + id;
-        R r = null;
+        Object local = getLocal(key);
+        if (local != null) {
+            cacheMetrics.recordGet(keyPrefix, CacheMetrics.MUTEX, CacheMetrics.LOCAL_HIT);
+            return fromLocal(local);
+        }
+        Object cached = getFromRedis(key, type);
+        if (cached != null) {
+            cacheMetrics.recordGet(keyPrefix, CacheMetrics.MUTEX, cached == NULL_VALUE ? CacheMetrics.NULL_HIT : CacheMetrics.HIT);
+            putLocal(key, fromLocal(cached));
+            return fromLocal(cached);
+        }
+        cacheMetrics.recordGet(keyPrefix, CacheMetrics.MUTEX, CacheMetrics.MISS);
+        return loadSingleFlight(keyPrefix, id, type, dbFallback, timeout, unit, false);
+    }
+
+    /**
+     * 缓存未命中：同一个jvm中相同key的并发请求只有第一个去重建，其它请求等待它的结果，不再各自获取锁
+     */
+    private <R, ID> R loadSingleFlight(String keyPrefix, ID id, Type type, Function<ID, R> dbFallback,
+                                       long timeout, TimeUnit unit, boolean logicExpire) {
+        String key = keyPrefix + id;
+        CompletableFuture<Object> future = new CompletableFuture<>();
+        CompletableFuture<Object> leader = inFlightLoads.putIfAbsent(key, future);
+        if (leader != null) {
+            return fromLocal(awaitLoad(key, leader));
+        }
+        try {
+            R r = loadWithMutex(keyPrefix, id, type, dbFallback, timeout, unit, logicExpire);
+            future.complete(r == null ? NULL_VALUE : r);
+            return r;
+        } catch (RuntimeException e) {
+            future.completeExceptionally(e);
+            throw e;
+        } finally {
+            inFlightLoads.remove(key, future);
+        }
+    }
+
+    /**
+     * 获取互斥锁后查询数据库重建缓存，锁被其它节点持有时短暂等待后重新查询redis，最多等待mutexWaitMillis
+     *
+     * @param logicExpire 是否写入逻辑过期的缓存，数据库中不存在时都缓存有过期时间的空值
+     */
+    private <R, ID> R loadWithMutex(String keyPrefix, ID id, Type type, Function<ID, R> dbFallback,
+                                    long timeout, TimeUnit unit, boolean logicExpire) {
+        String key = keyPrefix + id;
+        ILock lock = new SimpleRedisLock(key, redisTemplate);
+        long deadline = System.currentTimeMillis() + mutexWaitMillis;
+        long backoff = 10;
+        boolean locked = lock.tryLock(LOCK_SHOP_TTL);
+        if (!locked) {
+            // 其它节点正在重建
+            cacheMetrics.recordLockContention(keyPrefix);
+        }
+        while (!locked) {
+            long remaining = deadline - System.currentTimeMillis();
+            if (remaining <= 0) {
+                throw new IllegalStateException("缓存重建超时，key = " + key);
+            }
+            try {
+                Thread.sleep(Math.min(backoff, remaining));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException("等待缓存重建时被中断，key = " + key, e);
+            }
+            backoff = Math.min(backoff * 2, 200);
+            Object cached = getFromRedis(key, type, logicExpire);
+            if (cached != null) {
+                return fromLocal(cached);
+            }
+            locked = lock.tryLock(LOCK_SHOP_TTL);
+        }
         try {
-            if (!tryLock(lockKey)) {
-                Thread.sleep(5000);
-                queryWithMutex(keyPrefix, id, type, dbFallback, timeout, unit);
+            // 获取锁后再查一次redis，其它节点可能刚刚重建完成
+            Object cached = getFromRedis(key, type, logicExpire);
+            if (cached != null) {
+                return fromLocal(cached);
             }
-            Thread.sleep(10000);
-            r = dbFallback.apply(id);
+            R r = callDb(keyPrefix, () -> dbFallback.apply(id));
             if (r == null) {
-                redisTemplate.opsForValue().set(key, "", CACHE_NULL_TTL, TimeUnit.MINUTES);
+                setNull(key);
                 return null;
             }
-            this.set(key, r, timeout, unit);
-        } catch (InterruptedException e) {
-            throw new RuntimeException(e);
+            if (logicExpire) {
+                this.setWithLogicExpire(key, r, timeout, unit);
+            } else {
+                this.set(key, r, timeout, unit);
+            }
+            return r;
         } finally {
-            unLock(lockKey);
+            lock.unlock();
         }
-        return r;
+    }
+
+    /**
+     * 等待同一个jvm中正在进行的重建，最多等待mutexWaitMillis
+     */
+    private Object awaitLoad(String key, CompletableFuture<Object> future) {
+        try {
+            return future.get(mutexWaitMillis, TimeUnit.MILLISECONDS);
+        } catch (TimeoutException e) {
+            throw new IllegalStateException("缓存重建超时，key = " + key);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("等待缓存重建时被中断，key = " + key, e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new IllegalStateException(e.getCause());
+        }
+    }
+
+    /**
+     * 查询redis
+     *
+     * @return 未命中返回null，命中空值返回NULL_VALUE
+     */
+    private Object getFromRedis(String key, Type type) {
+        return getFromRedis(key, type, false);
+    }
+
+    /**
+     * 查询redis，逻辑过期的缓存不判断是否过期
+     */
+    private Object getFromRedis(String key, Type type, boolean logicExpire) {
+        byte[] bytes = getBytes(key);
+        if (bytes == null) {
+            return null;
+        }
+        return bytes.length == 0 ? NULL_VALUE : decode(key, bytes, type, logicExpire).getData();
     }
 
     /**
@@ -94,17 +862,31 @@ public class CacheClient {
      * @return
      */
     public <R, ID> R queryWithPassThrough(String keyPrefix, ID id, Class<R> type, Function<ID, R> dbFallback, long timeout, TimeUnit unit) {
+        return query(CacheStrategy.PASS_THROUGH, keyPrefix, id, type, dbFallback, timeout, unit);
+    }
+
+    private <R, ID> R doQueryWithPassThrough(String keyPrefix, ID id, Type type, Function<ID, R> dbFallback, long timeout, TimeUnit unit) {
         String key = keyPrefix + id;
-        String json = redisTemplate.opsForValue().get(key);
-        if (StrUtil.isNotBlank(json)) {
-            return JSONUtil.toBean(json, type);
-        }
-        if (json != null) {
+        if (!mightContain(keyPrefix, id)) {
+            // 布隆过滤器判断不存在
+            cacheMetrics.recordGet(keyPrefix, CacheMetrics.PASS_THROUGH, CacheMetrics.BLOOM_REJECT);
             return null;
         }
-        R r = dbFallback.apply(id);
+        Object local = getLocal(key);
+        if (local != null) {
+            cacheMetrics.recordGet(keyPrefix, CacheMetrics.PASS_THROUGH, CacheMetrics.LOCAL_HIT);
+            return fromLocal(local);
+        }
+        Object cached = getFromRedis(key, type);
+        if (cached != null) {
+            cacheMetrics.recordGet(keyPrefix, CacheMetrics.PASS_THROUGH, cached == NULL_VALUE ? CacheMetrics.NULL_HIT : CacheMetrics.HIT);
+            putLocal(key, fromLocal(cached));
+            return fromLocal(cached);
+        }
+        cacheMetrics.recordGet(keyPrefix, CacheMetrics.PASS_THROUGH, CacheMetrics.MISS);
+        R r = callDb(keyPrefix, () -> dbFallback.apply(id));
         if (r == null) {
-            redisTemplate.opsForValue().set(key, "", CACHE_NULL_TTL, TimeUnit.MINUTES);
+            setNull(key);
             return null;
         }
         this.set(key, r, timeout, unit);
@@ -112,64 +894,241 @@ public class CacheClient {
     }
 
     /**
-     * 线程池
+     * 批量查询：本地缓存 -> 一次MGET -> 一次批量查询数据库 -> 管道批量回写，往返次数与id个数无关
+     *
+     * @param keyPrefix
+     * @param ids
+     * @param type
+     * @param batchDbFallback 根据未命中的id批量查询数据库，返回 id -> 数据
+     * @return id -> 数据，按ids的顺序，不存在的id不包含在内
      */
-    private static final ExecutorService CACHE_REBUILD_EXECUTOR = Executors.newFixedThreadPool(10);
+    public <R, ID> Map<ID, R> queryBatch(String keyPrefix, Collection<ID> ids, Class<R> type,
+                                         Function<Collection<ID>, Map<ID, R>> batchDbFallback, long timeout, TimeUnit unit) {
+        return queryBatchWithDegrade(keyPrefix, ids, batchDbFallback,
+                () -> doQueryBatch(keyPrefix, ids, type, batchDbFallback, timeout, unit, false));
+    }
 
     /**
-     * 缓存击穿：逻辑过期
-     *
-     * @param id
-     * @return
+     * 批量查询逻辑过期的缓存，与queryWithLogicExpire使用相同的缓存格式：
+     * 已逻辑过期的数据返回旧数据，并逐个提交重建任务（互斥锁重建，与单个查询相同），
+     * 只有redis中不存在的key在一次批量查询数据库中同步加载
      */
-    public <R, ID> R queryWithLogicExpire(String keyPrefix, ID id, Class<R> type, Function<ID, R> dbFallback, long timeout, TimeUnit unit) {
-        String key = keyPrefix + id;
-        String redisDataJson = redisTemplate.opsForValue().get(key);
-        if (StrUtil.isBlank(redisDataJson)) {
-            return null;
-        }
-        RedisData redisData = JSONUtil.toBean(redisDataJson, RedisData.class);
-        R r = JSONUtil.toBean((JSONObject) redisData.getData(), type);
-        if (LocalDateTime.now().isBefore(redisData.getExpireTime())) {
-            return r;
+    public <R, ID> Map<ID, R> queryBatchWithLogicExpire(String keyPrefix, Collection<ID> ids, Class<R> type,
+                                                        Function<Collection<ID>, Map<ID, R>> batchDbFallback, long timeout, TimeUnit unit) {
+        return queryBatchWithDegrade(keyPrefix, ids, batchDbFallback,
+                () -> doQueryBatch(keyPrefix, ids, type, batchDbFallback, timeout, unit, true));
+    }
+
+    private <R, ID> Map<ID, R> doQueryBatch(String keyPrefix, Collection<ID> ids, Type type,
+                                            Function<Collection<ID>, Map<ID, R>> batchDbFallback,
+                                            long timeout, TimeUnit unit, boolean logicExpire) {
+        Map<ID, R> found = new LinkedHashMap<>();
+        List<ID> redisIds = new ArrayList<>();
+        Collection<ID> distinctIds = new LinkedHashSet<>(ids);
+        long bloomRejects = 0;
+        long localHits = 0;
+        for (ID id : distinctIds) {
+            if (!mightContain(keyPrefix, id)) {
+                bloomRejects++;
+                continue;
+            }
+            Object local = getLocal(keyPrefix + id);
+            if (local == null) {
+                redisIds.add(id);
+            } else {
+                localHits++;
+                if (local != NULL_VALUE) {
+                    found.put(id, fromLocal(local));
+                }
+            }
         }
-        String lockKey = LOCK_SHOP_KEY + id;
-        if (tryLock(lockKey)) {
-            CACHE_REBUILD_EXECUTOR.submit(() -> {
-                try {
-                    String redisDataJsonDoubleCheck = redisTemplate.opsForValue().get(key);
-                    RedisData redisDataDoubleCheck = JSONUtil.toBean(redisDataJsonDoubleCheck, RedisData.class);
-                    if (LocalDateTime.now().isAfter(redisDataDoubleCheck.getExpireTime())) {
-                        this.setWithLogicExpire(key, dbFallback.apply(id), timeout, unit);
+        cacheMetrics.recordGets(keyPrefix, CacheMetrics.BATCH, CacheMetrics.BLOOM_REJECT, bloomRejects);
+        cacheMetrics.recordGets(keyPrefix, CacheMetrics.BATCH, CacheMetrics.LOCAL_HIT, localHits);
+        if (!redisIds.isEmpty()) {
+            // 一次MGET查询所有本地未命中的key
+            byte[][] rawKeys = new byte[redisIds.size()][];
+            for (int i = 0; i < rawKeys.length; i++) {
+                rawKeys[i] = (keyPrefix + redisIds.get(i)).getBytes(StandardCharsets.UTF_8);
+            }
+            List<byte[]> values = redisTemplate.execute((RedisCallback<List<byte[]>>) connection -> connection.mGet(rawKeys));
+            long now = System.currentTimeMillis();
+            List<ID> dbIds = new ArrayList<>();
+            long hits = 0;
+            long nullHits = 0;
+            long misses = 0;
+            long expired = 0;
+            for (int i = 0; i < redisIds.size(); i++) {
+                ID id = redisIds.get(i);
+                String key = keyPrefix + id;
+                byte[] bytes = values == null ? null : values.get(i);
+                if (bytes == null) {
+                    misses++;
+                    dbIds.add(id);
+                } else if (bytes.length == 0) {
+                    // 缓存的空值
+                    nullHits++;
+                    putLocal(key, null);
+                } else {
+                    CacheValue<R> cacheValue = decode(key, bytes, type, logicExpire);
+                    if (logicExpire && now >= cacheValue.getExpireMillis()) {
+                        // 已逻辑过期：返回旧数据，同一个key只会有一个重建任务
+                        expired++;
+                        found.put(id, cacheValue.getData());
+                        Function<ID, R> dbFallback = dbId -> batchDbFallback.apply(Collections.singletonList(dbId)).get(dbId);
+                        cacheRefresher.submit(key, () -> rebuildLogicExpire(keyPrefix, id, dbFallback, type, timeout, unit, now));
+                    } else {
+                        hits++;
+                        found.put(id, cacheValue.getData());
+                        putLocal(key, cacheValue.getData());
                     }
-                } catch (Exception e) {
-                    throw new RuntimeException(e);
-                } finally {
-                    unLock(lockKey);
                 }
-            });
+            }
+            cacheMetrics.recordGets(keyPrefix, CacheMetrics.BATCH, CacheMetrics.HIT, hits);
+            cacheMetrics.recordGets(keyPrefix, CacheMetrics.BATCH, CacheMetrics.NULL_HIT, nullHits);
+            cacheMetrics.recordGets(keyPrefix, CacheMetrics.BATCH, CacheMetrics.MISS, misses);
+            cacheMetrics.recordGets(keyPrefix, CacheMetrics.BATCH, CacheMetrics.EXPIRED, expired);
+            if (!dbIds.isEmpty()) {
+                // 一次查询数据库，再用管道一次写回redis
+                Map<ID, R> loaded = callDb(keyPrefix, () -> batchDbFallback.apply(dbIds));
+                writeBatch(keyPrefix, dbIds, loaded, timeout, unit, logicExpire);
+                found.putAll(loaded);
+            }
         }
-        return r;
+        // 按请求的顺序返回
+        Map<ID, R> result = new LinkedHashMap<>();
+        for (ID id : distinctIds) {
+            R r = found.get(id);
+            if (r != null) {
+                result.put(id, r);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * 管道批量写入，数据库中也不存在的id缓存空值（逻辑过期的缓存不写空值，与queryWithLogicExpire一致）
+     */
+    private <R, ID> void writeBatch(String keyPrefix, List<ID> ids, Map<ID, R> loaded,
+                                    long timeout, TimeUnit unit, boolean logicExpire) {
+        long now = System.currentTimeMillis();
+        loaded.forEach((id, r) -> putStale(keyPrefix + id, r));
+        redisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            for (ID id : ids) {
+                String key = keyPrefix + id;
+                byte[] rawKey = key.getBytes(StandardCharsets.UTF_8);
+                R r = loaded.get(id);
+                if (r == null) {
+                    if (!logicExpire) {
+                        connection.set(rawKey, new byte[0], Expiration.milliseconds(jitterMillis(TimeUnit.MINUTES.toMillis(CACHE_NULL_TTL))),
+                                RedisStringCommands.SetOption.upsert());
+                    }
+                } else if (logicExpire) {
+                    connection.set(rawKey, encode(key, r, now + jitterMillis(unit.toMillis(timeout))), Expiration.persistent(),
+                            RedisStringCommands.SetOption.upsert());
+                } else {
+                    connection.set(rawKey, encode(key, r, 0), Expiration.milliseconds(jitterMillis(unit.toMillis(timeout))),
+                            RedisStringCommands.SetOption.upsert());
+                }
+            }
+            return null;
+        });
+        ids.forEach(id -> evictLocal(keyPrefix + id));
     }
 
     /**
-     * 获取锁
+     * 缓存击穿：逻辑过期
      *
-     * @param key
+     * @param id
      * @return
      */
-    private boolean tryLock(String key) {
-        Boolean flag = redisTemplate.opsForValue().setIfAbsent(key, "1", LOCK_SHOP_TTL, TimeUnit.SECONDS);
-        return BooleanUtil.isTrue(flag);
+    public <R, ID> R queryWithLogicExpire(String keyPrefix, ID id, Class<R> type, Function<ID, R> dbFallback, long timeout, TimeUnit unit) {
+        return query(CacheStrategy.LOGIC_EXPIRE, keyPrefix, id, type, dbFallback, timeout, unit);
     }
 
     /**
-     * 释放锁
+     * 缓存击穿：逻辑过期 + 未命中时加载
+     * redis中存在的key与queryWithLogicExpire相同：未过期直接返回，已过期返回旧数据并异步重建；
+     * 不存在的key（未预热、被删除、redis重启）不返回null，而是同步加载：同一个jvm中合并为一次，节点之间用互斥锁，
+     * 数据库中也不存在时缓存有过期时间的空值，布隆过滤器判断不存在的id直接返回
+     * <p>
+     * 延迟：命中或逻辑过期时与queryWithLogicExpire相同，只有一次redis读取，不等待数据库；
+     * key不存在时与queryWithMutex未命中相同（redis读取 + 加锁 + 查询数据库 + 写入），每个key只在第一次访问时发生，
+     * 之后数据一直保留在redis中，由逻辑过期异步重建
      *
-     * @param key
+     * @param id
+     * @return
      */
-    private void unLock(String key) {
-        redisTemplate.delete(key);
+    public <R, ID> R queryWithLogicExpireOrLoad(String keyPrefix, ID id, Class<R> type, Function<ID, R> dbFallback, long timeout, TimeUnit unit) {
+        return query(CacheStrategy.LOGIC_EXPIRE_OR_LOAD, keyPrefix, id, type, dbFallback, timeout, unit);
+    }
+
+    /**
+     * @param loadOnMiss key不存在时是否同步加载，否则返回null
+     */
+    private <R, ID> R doQueryWithLogicExpire(String keyPrefix, ID id, Type type, Function<ID, R> dbFallback,
+                                             long timeout, TimeUnit unit, boolean loadOnMiss) {
+        String key = keyPrefix + id;
+        String strategy = loadOnMiss ? CacheMetrics.HYBRID : CacheMetrics.LOGIC_EXPIRE;
+        if (!mightContain(keyPrefix, id)) {
+            // 布隆过滤器判断不存在
+            cacheMetrics.recordGet(keyPrefix, strategy, CacheMetrics.BLOOM_REJECT);
+            return null;
+        }
+        Object local = getLocal(key);
+        if (local != null) {
+            cacheMetrics.recordGet(keyPrefix, strategy, CacheMetrics.LOCAL_HIT);
+            cacheRefresher.recordAccess(key);
+            return fromLocal(local);
+        }
+        byte[] bytes = getBytes(key);
+        if (bytes == null) {
+            cacheMetrics.recordGet(keyPrefix, strategy, CacheMetrics.MISS);
+            // 逻辑过期的缓存需要预热，未预热的数据视为不存在；或者同步加载一次，之后按逻辑过期处理
+            return loadOnMiss ? loadSingleFlight(keyPrefix, id, type, dbFallback, timeout, unit, true) : null;
+        }
+        if (bytes.length == 0) {
+            // 缓存的空值
+            cacheMetrics.recordGet(keyPrefix, strategy, CacheMetrics.NULL_HIT);
+            return null;
+        }
+        CacheValue<R> cacheValue = decode(key, bytes, type, true);
+        R r = cacheValue.getData();
+        // 记录访问，访问频繁的key在快要过期时提前重建
+        cacheRefresher.track(key, cacheValue.getExpireMillis(),
+                refreshBefore -> rebuildLogicExpire(keyPrefix, id, dbFallback, type, timeout, unit, refreshBefore));
+        if (System.currentTimeMillis() < cacheValue.getExpireMillis()) {
+            // 只缓存未过期的数据，逻辑过期后由下一次访问redis的请求触发重建
+            cacheMetrics.recordGet(keyPrefix, strategy, CacheMetrics.HIT);
+            putLocal(key, r);
+            return r;
+        }
+        // 已逻辑过期：提交重建任务，同一个key只会有一个重建任务，返回旧数据
+        cacheMetrics.recordGet(keyPrefix, strategy, CacheMetrics.EXPIRED);
+        cacheRefresher.submit(key, () -> rebuildLogicExpire(keyPrefix, id, dbFallback, type, timeout, unit, System.currentTimeMillis()));
+        return r;
+    }
+
+    /**
+     * 重建逻辑过期的缓存：获取互斥锁，redis中的过期时间早于refreshBeforeMillis时才查询数据库（其它节点可能已经重建）
+     */
+    private <R, ID> void rebuildLogicExpire(String keyPrefix, ID id, Function<ID, R> dbFallback, Type type,
+                                            long timeout, TimeUnit unit, long refreshBeforeMillis) {
+        String key = keyPrefix + id;
+        ILock lock = new SimpleRedisLock(key, redisTemplate);
+        if (!lock.tryLock(LOCK_SHOP_TTL)) {
+            // 其它节点正在重建
+            cacheMetrics.recordLockContention(keyPrefix);
+            return;
+        }
+        try {
+            byte[] bytes = getBytes(key);
+            if (bytes == null || bytes.length == 0
+                    || decode(key, bytes, type, true).getExpireMillis() < refreshBeforeMillis) {
+                this.setWithLogicExpire(key, callDb(keyPrefix, () -> dbFallback.apply(id)), timeout, unit);
+            }
+        } finally {
+            lock.unlock();
+        }
     }
 
 }
@@ -0,0 +1,39 @@
+package com.hmdp.utils;
+
+import java.lang.reflect.Type;
+
+/**
+ * 缓存值编解码器，CacheClient按key前缀选择编码方式，解码时根据数据本身的格式选择解码器，
+ * 因此切换编码方式后已有的缓存仍然可以读取，重建时再以新格式写入
+ */
+public interface CacheCodec {
+
+    /**
+     * 编码器名称，用于配置 hmdp.cache.codec.*
+     */
+    String name();
+
+    /**
+     * 编码
+     *
+     * @param data         缓存的数据
+     * @param expireMillis 逻辑过期时间（毫秒），没有逻辑过期时为0
+     * @return 不能为空数组，空数组表示缓存的空值
+     */
+    byte[] encode(Object data, long expireMillis);
+
+    /**
+     * 是否可以解码该数据
+     */
+    boolean supports(byte[] bytes);
+
+    /**
+     * 解码
+     *
+     * @param bytes
+     * @param type        数据类型，可以是泛型类型，如List<Voucher>
+     * @param logicExpire 是否是带逻辑过期的数据
+     * @return
+     */
+    <R> CacheValue<R> decode(byte[] bytes, Type type, boolean logicExpire);
+}
@@ -0,0 +1,155 @@
+package com.hmdp.utils;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.nio.ByteBuffer;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * 缓存值压缩：编码后的数据超过阈值时用Deflate压缩，格式为 1字节压缩标识 + 4字节原始长度 + 压缩后的数据
+ * 压缩标识0xC2在UTF-8中不会出现，也不同于二进制编码的0xC1，读取时根据第一个字节判断，压缩和未压缩的缓存可以共存
+ * 压缩后没有变小的数据按原样保存
+ */
+@Component
+public class CacheCompressor {
+
+    private static final byte MAGIC = (byte) 0xC2;
+    private static final int HEADER_LENGTH = 1 + Integer.BYTES;
+
+    /**
+     * 是否压缩，关闭后仍然可以读取已压缩的缓存
+     */
+    @Value("${hmdp.cache.compress.enabled:false}")
+    private boolean enabled;
+
+    /**
+     * 编码后超过该字节数才压缩
+     */
+    @Value("${hmdp.cache.compress.threshold-bytes:1024}")
+    private int thresholdBytes;
+
+    /**
+     * 压缩级别，1最快，9压缩率最高
+     */
+    @Value("${hmdp.cache.compress.level:1}")
+    private int level;
+
+    private final LongAdder compressed = new LongAdder();
+    private final LongAdder belowThreshold = new LongAdder();
+    private final LongAdder notSmaller = new LongAdder();
+    private final LongAdder bytesBefore = new LongAdder();
+    private final LongAdder bytesAfter = new LongAdder();
+    private final LongAdder compressNanos = new LongAdder();
+    private final LongAdder decompressed = new LongAdder();
+    private final LongAdder decompressNanos = new LongAdder();
+
+    /**
+     * 超过阈值时压缩
+     *
+     * @param bytes 编码后的数据
+     * @return 压缩后的数据，不压缩时返回原数据
+     */
+    public byte[] compress(byte[] bytes) {
+        if (!enabled) {
+            return bytes;
+        }
+        if (bytes.length < thresholdBytes) {
+            belowThreshold.increment();
+            return bytes;
+        }
+        long begin = System.nanoTime();
+        Deflater deflater = new Deflater(level);
+        try {
+            deflater.setInput(bytes);
+            deflater.finish();
+            // 压缩后不小于原数据时不保存压缩结果
+            byte[] buffer = new byte[bytes.length];
+            int length = 0;
+            while (!deflater.finished() && length < buffer.length) {
+                length += deflater.deflate(buffer, length, buffer.length - length);
+            }
+            if (!deflater.finished() || HEADER_LENGTH + length >= bytes.length) {
+                notSmaller.increment();
+                return bytes;
+            }
+            compressed.increment();
+            bytesBefore.add(bytes.length);
+            bytesAfter.add(HEADER_LENGTH + length);
+            return ByteBuffer.allocate(HEADER_LENGTH + length)
+                    .put(MAGIC)
+                    .putInt(bytes.length)
+                    .put(buffer, 0, length)
+                    .array();
+        } finally {
+            deflater.end();
+            compressNanos.add(System.nanoTime() - begin);
+        }
+    }
+
+    /**
+     * 解压，未压缩的数据原样返回
+     */
+    public byte[] decompress(byte[] bytes) {
+        if (bytes.length < HEADER_LENGTH || bytes[0] != MAGIC) {
+            return bytes;
+        }
+        long begin = System.nanoTime();
+        Inflater inflater = new Inflater();
+        try {
+            inflater.setInput(bytes, HEADER_LENGTH, bytes.length - HEADER_LENGTH);
+            byte[] result = new byte[ByteBuffer.wrap(bytes, 1, Integer.BYTES).getInt()];
+            int length = 0;
+            while (!inflater.finished() && length < result.length) {
+                int n = inflater.inflate(result, length, result.length - length);
+                if (n == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                    break;
+                }
+                length += n;
+            }
+            if (length != result.length) {
+                throw new IllegalStateException("压缩的缓存数据不完整");
+            }
+            decompressed.increment();
+            return result;
+        } catch (DataFormatException e) {
+            throw new IllegalStateException("无法解压的缓存数据", e);
+        } finally {
+            inflater.end();
+            decompressNanos.add(System.nanoTime() - begin);
+        }
+    }
+
+    /**
+     * 压缩统计：节省的字节数与压缩、解压耗费的时间
+     */
+    public Map<String, Object> stats() {
+        long before = bytesBefore.sum();
+        long after = bytesAfter.sum();
+        long compressCount = compressed.sum() + notSmaller.sum();
+        long decompressCount = decompressed.sum();
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("enabled", enabled);
+        stats.put("compressed", compressed.sum());
+        stats.put("belowThreshold", belowThreshold.sum());
+        stats.put("notSmaller", notSmaller.sum());
+        stats.put("bytesBefore", before);
+        stats.put("bytesAfter", after);
+        stats.put("bytesSaved", before - after);
+        stats.put("ratio", before == 0 ? 1 : Math.round(after * 1000.0 / before) / 1000.0);
+        stats.put("compressMs", compressNanos.sum() / 1_000_000);
+        stats.put("compressAvgUs", compressCount == 0 ? 0 : compressNanos.sum() / compressCount / 1000);
+        stats.put("decompressed", decompressCount);
+        stats.put("decompressMs", decompressNanos.sum() / 1_000_000);
+        stats.put("decompressAvgUs", decompressCount == 0 ? 0 : decompressNanos.sum() / decompressCount / 1000);
+        // 每毫秒压缩耗时节省的字节数（只计算写入，每次读取还会节省同样的网络字节）
+        long compressMillis = Math.max(1, compressNanos.sum() / 1_000_000);
+        stats.put("bytesSavedPerCpuMs", (before - after) / compressMillis);
+        return stats;
+    }
+}
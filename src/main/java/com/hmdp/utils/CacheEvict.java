@@ -0,0 +1,26 @@
+package com.hmdp.utils;
+
+import java.lang.annotation.Documented;
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * 删除缓存：方法正常返回后通过CacheInvalidator删除，在事务中时等事务提交后删除，并延迟再删除一次
+ */
+@Target(ElementType.METHOD)
+@Retention(RetentionPolicy.RUNTIME)
+@Documented
+public @interface CacheEvict {
+
+    /**
+     * key前缀，与@Cached的前缀相同
+     */
+    String prefix();
+
+    /**
+     * 作为key的参数：参数名，或者 参数名.属性名；为空时使用第一个参数
+     */
+    String key() default "";
+}
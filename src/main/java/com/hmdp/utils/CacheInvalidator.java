@@ -0,0 +1,168 @@
+package com.hmdp.utils;
+
+import cn.hutool.core.io.FileUtil;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 数据修改后删除缓存：
+ * 1. 在事务提交之后删除，避免事务提交前其它请求把旧数据重新写入缓存
+ * 2. 延迟一段时间再删除一次，删除掉提交前后并发读请求写入的旧数据
+ * 3. 删除失败的key追加到本地文件，定时重试，重启后继续重试
+ * 任何通过CacheClient缓存的数据都可以使用
+ */
+@Slf4j
+@Component
+public class CacheInvalidator {
+
+    private final CacheClient cacheClient;
+
+    /**
+     * 第二次删除的延迟时间
+     */
+    @Value("${hmdp.cache.invalidate.double-delete-delay-ms:500}")
+    private long doubleDeleteDelayMillis;
+
+    /**
+     * 重试删除的间隔
+     */
+    @Value("${hmdp.cache.invalidate.retry-interval-ms:5000}")
+    private long retryIntervalMillis;
+
+    /**
+     * 删除失败的key保存的文件
+     */
+    @Value("${hmdp.cache.invalidate.retry-log:data/cache-invalidate-retry.log}")
+    private String retryLogPath;
+
+    private File retryLog;
+
+    private ScheduledExecutorService invalidateExecutor;
+
+    private final LongAdder deleted = new LongAdder();
+    private final LongAdder failed = new LongAdder();
+    private final LongAdder retried = new LongAdder();
+
+    public CacheInvalidator(CacheClient cacheClient) {
+        this.cacheClient = cacheClient;
+    }
+
+    @PostConstruct
+    private void init() {
+        retryLog = FileUtil.file(retryLogPath);
+        invalidateExecutor = Executors.newSingleThreadScheduledExecutor();
+        // 启动后立即重试上次没有删除成功的key
+        invalidateExecutor.scheduleWithFixedDelay(this::replayRetryLog, 0, retryIntervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    @PreDestroy
+    private void destroy() {
+        invalidateExecutor.shutdownNow();
+    }
+
+    /**
+     * 删除缓存，在事务中调用时等事务提交后再删除
+     *
+     * @param key
+     */
+    public void invalidate(String key) {
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    doubleDelete(key);
+                }
+            });
+        } else {
+            doubleDelete(key);
+        }
+    }
+
+    /**
+     * 立即删除一次，延迟后再删除一次
+     */
+    private void doubleDelete(String key) {
+        delete(key);
+        invalidateExecutor.schedule(() -> delete(key), doubleDeleteDelayMillis, TimeUnit.MILLISECONDS);
+    }
+
+    private void delete(String key) {
+        try {
+            cacheClient.evict(key);
+            deleted.increment();
+        } catch (Exception e) {
+            failed.increment();
+            log.warn("删除缓存失败，稍后重试，key = {}：{}", key, e.getMessage());
+            appendRetryLog(key);
+        }
+    }
+
+    private synchronized void appendRetryLog(String key) {
+        try {
+            FileUtil.appendUtf8Lines(Collections.singletonList(key), retryLog);
+        } catch (Exception e) {
+            log.error("记录删除失败的缓存失败，key = {}", key, e);
+        }
+    }
+
+    /**
+     * 重试删除文件中的key，仍然失败的写回文件
+     */
+    private synchronized void replayRetryLog() {
+        try {
+            if (!retryLog.exists()) {
+                return;
+            }
+            Set<String> keys = new LinkedHashSet<>(FileUtil.readUtf8Lines(retryLog));
+            List<String> remaining = new ArrayList<>();
+            for (String key : keys) {
+                if (key.isEmpty()) {
+                    continue;
+                }
+                try {
+                    cacheClient.evict(key);
+                    retried.increment();
+                } catch (Exception e) {
+                    remaining.add(key);
+                }
+            }
+            if (remaining.isEmpty()) {
+                FileUtil.del(retryLog);
+            } else {
+                FileUtil.writeUtf8Lines(remaining, retryLog);
+            }
+        } catch (Exception e) {
+            log.error("重试删除缓存失败", e);
+        }
+    }
+
+    /**
+     * 统计信息
+     */
+    public Map<String, Object> stats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("deleted", deleted.sum());
+        stats.put("failed", failed.sum());
+        stats.put("retried", retried.sum());
+        stats.put("retryLog", retryLog.getAbsolutePath());
+        return stats;
+    }
+}
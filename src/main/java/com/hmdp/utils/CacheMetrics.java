@@ -0,0 +1,310 @@
+package com.hmdp.utils;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+/**
+ * 缓存指标，按key前缀统计：
+ * cache.gets（标签 prefix、strategy、result）：每次查询的结果，命中、本地命中、空值命中、布隆过滤器拦截、未命中、逻辑过期、返回旧数据
+ * cache.load（标签 prefix、result）：缓存未命中时查询数据库的耗时
+ * cache.lock.contention（标签 prefix）：重建缓存时互斥锁被其它线程或节点持有的次数
+ * cache.bloom.fill.ratio、cache.bloom.rejections（标签 prefix）：布隆过滤器已置位比例、拦截的查询次数
+ * 降级返回旧数据（result=stale）时，失败前的查询已经记录过一次结果，汇总查询次数时不重复计算
+ * 没有接入监控的节点定时输出每个前缀的命中率和重建耗时日志
+ */
+@Slf4j
+@Component
+public class CacheMetrics {
+
+    public static final String MUTEX = "mutex";
+    public static final String PASS_THROUGH = "pass_through";
+    public static final String LOGIC_EXPIRE = "logic_expire";
+    public static final String HYBRID = "hybrid";
+    public static final String BATCH = "batch";
+
+    /**
+     * 布隆过滤器判断不存在
+     */
+    public static final String BLOOM_REJECT = "bloom_reject";
+    /**
+     * 本地缓存命中（包括热点key）
+     */
+    public static final String LOCAL_HIT = "local_hit";
+    /**
+     * redis命中
+     */
+    public static final String HIT = "hit";
+    /**
+     * 命中缓存的空值
+     */
+    public static final String NULL_HIT = "null_hit";
+    /**
+     * 逻辑过期，返回旧数据并异步重建
+     */
+    public static final String EXPIRED = "expired";
+    /**
+     * 未命中，查询数据库
+     */
+    public static final String MISS = "miss";
+    /**
+     * 降级，返回本地保存的旧数据
+     */
+    public static final String STALE = "stale";
+
+    private static final String[] RESULTS = {BLOOM_REJECT, LOCAL_HIT, HIT, NULL_HIT, EXPIRED, MISS, STALE};
+
+    private final MeterRegistry registry;
+
+    /**
+     * 日志输出间隔，0表示不输出
+     */
+    @Value("${hmdp.cache.metrics.log-interval-seconds:60}")
+    private long logIntervalSeconds;
+
+    /**
+     * key前缀 -> 该前缀的指标
+     */
+    private final Map<String, PrefixMetrics> prefixes = new ConcurrentHashMap<>();
+
+    private ScheduledExecutorService logExecutor;
+
+    public CacheMetrics(MeterRegistry registry, CacheRefresher cacheRefresher, HotKeyDetector hotKeyDetector) {
+        this.registry = registry;
+        gauge("cache.refresh.queue", () -> (Number) cacheRefresher.stats().get("queueSize"));
+        gauge("cache.refresh.active", () -> (Number) cacheRefresher.stats().get("activeThreads"));
+        gauge("cache.refresh.tracked", () -> (Number) cacheRefresher.stats().get("trackedKeys"));
+        gauge("cache.hot.keys", () -> hotKeyDetector.hotKeys().size());
+    }
+
+    @PostConstruct
+    private void init() {
+        if (logIntervalSeconds <= 0) {
+            return;
+        }
+        logExecutor = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "cache-metrics-log");
+            thread.setDaemon(true);
+            return thread;
+        });
+        logExecutor.scheduleWithFixedDelay(this::logSummary, logIntervalSeconds, logIntervalSeconds, TimeUnit.SECONDS);
+    }
+
+    @PreDestroy
+    private void destroy() {
+        if (logExecutor != null) {
+            logExecutor.shutdownNow();
+        }
+    }
+
+    /**
+     * 注册一个仪表，取值时调用supplier
+     */
+    public void gauge(String name, Supplier<Number> supplier) {
+        Gauge.builder(name, supplier).register(registry);
+    }
+
+    /**
+     * 注册一个key前缀的仪表，取值时调用supplier
+     */
+    public void gauge(String name, String keyPrefix, Supplier<Number> supplier) {
+        Gauge.builder(name, supplier).tag("prefix", keyPrefix).register(registry);
+    }
+
+    /**
+     * 记录一次查询结果
+     */
+    public void recordGet(String keyPrefix, String strategy, String result) {
+        recordGets(keyPrefix, strategy, result, 1);
+    }
+
+    /**
+     * 记录多次查询结果，批量查询时使用
+     */
+    public void recordGets(String keyPrefix, String strategy, String result, long count) {
+        if (count > 0) {
+            metrics(keyPrefix).gets(strategy, result).increment(count);
+        }
+    }
+
+    /**
+     * 记录一次数据库查询的耗时
+     */
+    public void recordLoad(String keyPrefix, long nanos, boolean success) {
+        PrefixMetrics metrics = metrics(keyPrefix);
+        (success ? metrics.loads : metrics.loadFailures).record(nanos, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * 记录一次互斥锁竞争
+     */
+    public void recordLockContention(String keyPrefix) {
+        metrics(keyPrefix).lockContention.increment();
+    }
+
+    private PrefixMetrics metrics(String keyPrefix) {
+        return prefixes.computeIfAbsent(keyPrefix, PrefixMetrics::new);
+    }
+
+    /**
+     * 所有前缀的指标汇总
+     *
+     * @return key前缀 -> 汇总信息
+     */
+    public Map<String, Map<String, Object>> summary() {
+        Map<String, Map<String, Object>> summary = new LinkedHashMap<>();
+        prefixes.forEach((prefix, metrics) -> summary.put(prefix, metrics.summary()));
+        return summary;
+    }
+
+    /**
+     * 输出上一个间隔内每个前缀的查询次数、命中率、空值命中率、重建次数和耗时
+     */
+    private void logSummary() {
+        try {
+            prefixes.forEach((prefix, metrics) -> {
+                Snapshot current = metrics.snapshot();
+                Snapshot delta = current.minus(metrics.lastLogged);
+                metrics.lastLogged = current;
+                if (delta.gets == 0 && delta.loads == 0) {
+                    return;
+                }
+                log.info("缓存指标 {}：最近{}秒查询{}次，命中率{}%，空值命中率{}%，布隆拦截{}次，返回旧数据{}次，"
+                                + "重建{}次（平均{}ms，最大{}ms），失败{}次，锁竞争{}次",
+                        prefix, logIntervalSeconds, delta.gets, percent(delta.hits, delta.gets), percent(delta.nullHits, delta.gets),
+                        delta.bloomRejects, delta.stale, delta.loads,
+                        delta.loads == 0 ? 0 : Math.round(delta.loadMillis / delta.loads),
+                        Math.round(metrics.loads.max(TimeUnit.MILLISECONDS)), delta.loadFailures, delta.lockContention);
+            });
+        } catch (Exception e) {
+            log.error("输出缓存指标异常", e);
+        }
+    }
+
+    private static double percent(long part, long total) {
+        return total == 0 ? 0 : Math.round(part * 10000.0 / total) / 100.0;
+    }
+
+    /**
+     * 一个key前缀的指标，计数器在第一次使用时创建
+     */
+    private class PrefixMetrics {
+        private final String prefix;
+        private final Map<String, Counter> gets = new ConcurrentHashMap<>();
+        private final Timer loads;
+        private final Timer loadFailures;
+        private final Counter lockContention;
+        private volatile Snapshot lastLogged = new Snapshot();
+
+        PrefixMetrics(String prefix) {
+            this.prefix = prefix;
+            this.loads = Timer.builder("cache.load").tag("prefix", prefix).tag("result", "success").register(registry);
+            this.loadFailures = Timer.builder("cache.load").tag("prefix", prefix).tag("result", "failure").register(registry);
+            this.lockContention = Counter.builder("cache.lock.contention").tag("prefix", prefix).register(registry);
+        }
+
+        Counter gets(String strategy, String result) {
+            return gets.computeIfAbsent(strategy + ':' + result, k -> Counter.builder("cache.gets")
+                    .tag("prefix", prefix).tag("strategy", strategy).tag("result", result).register(registry));
+        }
+
+        /**
+         * 按结果汇总所有策略的查询次数
+         */
+        long count(String result) {
+            long count = 0;
+            for (Map.Entry<String, Counter> entry : gets.entrySet()) {
+                if (entry.getKey().endsWith(':' + result)) {
+                    count += (long) entry.getValue().count();
+                }
+            }
+            return count;
+        }
+
+        Snapshot snapshot() {
+            Snapshot snapshot = new Snapshot();
+            for (String result : RESULTS) {
+                long count = count(result);
+                if (!STALE.equals(result)) {
+                    // 返回旧数据是查询失败后的降级，失败前已经记录过一次结果
+                    snapshot.gets += count;
+                }
+                if (LOCAL_HIT.equals(result) || HIT.equals(result) || NULL_HIT.equals(result) || EXPIRED.equals(result)) {
+                    snapshot.hits += count;
+                }
+                if (NULL_HIT.equals(result)) {
+                    snapshot.nullHits = count;
+                } else if (BLOOM_REJECT.equals(result)) {
+                    snapshot.bloomRejects = count;
+                } else if (STALE.equals(result)) {
+                    snapshot.stale = count;
+                }
+            }
+            snapshot.loads = loads.count();
+            snapshot.loadMillis = loads.totalTime(TimeUnit.MILLISECONDS);
+            snapshot.loadFailures = loadFailures.count();
+            snapshot.lockContention = (long) lockContention.count();
+            return snapshot;
+        }
+
+        Map<String, Object> summary() {
+            Snapshot snapshot = snapshot();
+            Map<String, Object> summary = new LinkedHashMap<>();
+            summary.put("gets", snapshot.gets);
+            for (String result : RESULTS) {
+                summary.put(result, count(result));
+            }
+            summary.put("hitRate", percent(snapshot.hits, snapshot.gets));
+            summary.put("nullHitRate", percent(snapshot.nullHits, snapshot.gets));
+            summary.put("loads", snapshot.loads);
+            summary.put("loadFailures", snapshot.loadFailures);
+            summary.put("loadAvgMs", snapshot.loads == 0 ? 0 : snapshot.loadMillis / snapshot.loads);
+            summary.put("loadMaxMs", loads.max(TimeUnit.MILLISECONDS));
+            summary.put("lockContention", snapshot.lockContention);
+            return summary;
+        }
+    }
+
+    /**
+     * 累计值快照，用于计算日志间隔内的增量
+     */
+    private static class Snapshot {
+        long gets;
+        long hits;
+        long nullHits;
+        long bloomRejects;
+        long stale;
+        long loads;
+        double loadMillis;
+        long loadFailures;
+        long lockContention;
+
+        Snapshot minus(Snapshot other) {
+            Snapshot delta = new Snapshot();
+            delta.gets = gets - other.gets;
+            delta.hits = hits - other.hits;
+            delta.nullHits = nullHits - other.nullHits;
+            delta.bloomRejects = bloomRejects - other.bloomRejects;
+            delta.stale = stale - other.stale;
+            delta.loads = loads - other.loads;
+            delta.loadMillis = loadMillis - other.loadMillis;
+            delta.loadFailures = loadFailures - other.loadFailures;
+            delta.lockContention = lockContention - other.lockContention;
+            return delta;
+        }
+    }
+}
@@ -0,0 +1,214 @@
+package com.hmdp.utils;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongConsumer;
+
+/**
+ * 逻辑过期缓存的统一重建线程池
+ * 记录每个key的访问次数，定时扫描：访问频繁且快要过期的key提前重建，没有访问的key不再跟踪，到期后由读请求触发重建
+ * 同一个key同时只有一个重建任务，队列有界，队列满时放弃本次重建（下一次读请求会再次提交）
+ */
+@Slf4j
+@Component
+public class CacheRefresher {
+
+    /**
+     * 重建线程数
+     */
+    @Value("${hmdp.cache.refresh.threads:4}")
+    private int threads;
+
+    /**
+     * 等待重建的任务数上限
+     */
+    @Value("${hmdp.cache.refresh.queue-capacity:1000}")
+    private int queueCapacity;
+
+    /**
+     * 扫描间隔，访问次数按扫描间隔统计
+     */
+    @Value("${hmdp.cache.refresh.scan-interval-ms:1000}")
+    private long scanIntervalMillis;
+
+    /**
+     * 一个扫描间隔内访问次数达到该值的key才提前重建
+     */
+    @Value("${hmdp.cache.refresh.min-accesses:10}")
+    private long minAccesses;
+
+    /**
+     * 距离逻辑过期时间小于该值时提前重建
+     */
+    @Value("${hmdp.cache.refresh.ahead-ms:10000}")
+    private long aheadMillis;
+
+    private ThreadPoolExecutor refreshExecutor;
+    private ScheduledExecutorService scanExecutor;
+
+    /**
+     * key -> 访问记录
+     */
+    private final Map<String, Entry> entries = new ConcurrentHashMap<>();
+
+    /**
+     * 正在重建或等待重建的key
+     */
+    private final Set<String> refreshing = ConcurrentHashMap.newKeySet();
+
+    private final LongAdder submitted = new LongAdder();
+    private final LongAdder deduplicated = new LongAdder();
+    private final LongAdder rejected = new LongAdder();
+    private final LongAdder completed = new LongAdder();
+    private final LongAdder failed = new LongAdder();
+    private final LongAdder refreshedAhead = new LongAdder();
+    private final LongAdder lapsed = new LongAdder();
+
+    @PostConstruct
+    private void init() {
+        refreshExecutor = new ThreadPoolExecutor(threads, threads, 0, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(queueCapacity));
+        scanExecutor = Executors.newSingleThreadScheduledExecutor();
+        scanExecutor.scheduleWithFixedDelay(this::scan, scanIntervalMillis, scanIntervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    @PreDestroy
+    private void destroy() {
+        scanExecutor.shutdownNow();
+        refreshExecutor.shutdownNow();
+    }
+
+    /**
+     * 记录一次从redis读到的访问，并登记该key的重建方法
+     *
+     * @param key
+     * @param expireMillis 逻辑过期时间
+     * @param rebuild      重建方法，参数是重建的判断时间：redis中的过期时间早于该时间才重建
+     */
+    public void track(String key, long expireMillis, LongConsumer rebuild) {
+        Entry entry = entries.computeIfAbsent(key, k -> new Entry(rebuild));
+        entry.expireMillis = expireMillis;
+        entry.accesses.increment();
+    }
+
+    /**
+     * 记录一次访问（本地缓存命中），只统计已登记的key
+     *
+     * @param key
+     */
+    public void recordAccess(String key) {
+        Entry entry = entries.get(key);
+        if (entry != null) {
+            entry.accesses.increment();
+        }
+    }
+
+    /**
+     * 重建完成后更新逻辑过期时间
+     *
+     * @param key
+     * @param expireMillis
+     */
+    public void updateExpire(String key, long expireMillis) {
+        Entry entry = entries.get(key);
+        if (entry != null) {
+            entry.expireMillis = expireMillis;
+        }
+    }
+
+    /**
+     * 提交重建任务，同一个key已经在重建时不重复提交
+     *
+     * @return 是否提交成功
+     */
+    public boolean submit(String key, Runnable task) {
+        if (!refreshing.add(key)) {
+            deduplicated.increment();
+            return false;
+        }
+        try {
+            refreshExecutor.execute(() -> {
+                try {
+                    task.run();
+                    completed.increment();
+                } catch (Exception e) {
+                    failed.increment();
+                    log.error("缓存重建失败，key = {}", key, e);
+                } finally {
+                    refreshing.remove(key);
+                }
+            });
+            submitted.increment();
+            return true;
+        } catch (RejectedExecutionException e) {
+            refreshing.remove(key);
+            rejected.increment();
+            return false;
+        }
+    }
+
+    /**
+     * 扫描所有登记的key：没有访问的不再跟踪，访问频繁且快要过期的提前重建
+     */
+    private void scan() {
+        long now = System.currentTimeMillis();
+        entries.forEach((key, entry) -> {
+            long accesses = entry.accesses.sumThenReset();
+            if (accesses == 0) {
+                entries.remove(key, entry);
+                lapsed.increment();
+                return;
+            }
+            long refreshBefore = now + aheadMillis;
+            if (accesses >= minAccesses && entry.expireMillis < refreshBefore) {
+                if (submit(key, () -> entry.rebuild.accept(refreshBefore))) {
+                    refreshedAhead.increment();
+                }
+            }
+        });
+    }
+
+    /**
+     * 统计信息
+     */
+    public Map<String, Object> stats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("trackedKeys", entries.size());
+        stats.put("refreshing", refreshing.size());
+        stats.put("queueSize", refreshExecutor.getQueue().size());
+        stats.put("activeThreads", refreshExecutor.getActiveCount());
+        stats.put("submitted", submitted.sum());
+        stats.put("refreshedAhead", refreshedAhead.sum());
+        stats.put("deduplicated", deduplicated.sum());
+        stats.put("rejected", rejected.sum());
+        stats.put("completed", completed.sum());
+        stats.put("failed", failed.sum());
+        stats.put("lapsed", lapsed.sum());
+        return stats;
+    }
+
+    private static class Entry {
+        private final LongConsumer rebuild;
+        private final LongAdder accesses = new LongAdder();
+        private volatile long expireMillis;
+
+        Entry(LongConsumer rebuild) {
+            this.rebuild = rebuild;
+        }
+    }
+}
@@ -0,0 +1,23 @@
+package com.hmdp.utils;
+
+/**
+ * 缓存查询策略，见CacheClient对应的查询方法
+ */
+public enum CacheStrategy {
+    /**
+     * 缓存穿透：缓存空对象，见CacheClient.queryWithPassThrough
+     */
+    PASS_THROUGH,
+    /**
+     * 缓存击穿：互斥锁，见CacheClient.queryWithMutex
+     */
+    MUTEX,
+    /**
+     * 缓存击穿：逻辑过期，未预热的数据查询不到，见CacheClient.queryWithLogicExpire
+     */
+    LOGIC_EXPIRE,
+    /**
+     * 逻辑过期，未预热的数据第一次访问时同步加载，见CacheClient.queryWithLogicExpireOrLoad
+     */
+    LOGIC_EXPIRE_OR_LOAD
+}
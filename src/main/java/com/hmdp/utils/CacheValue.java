@@ -0,0 +1,17 @@
+package com.hmdp.utils;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+
+/**
+ * 编解码后的缓存值
+ */
+@Data
+@AllArgsConstructor
+public class CacheValue<R> {
+    private R data;
+    /**
+     * 逻辑过期时间（毫秒），没有逻辑过期时为0
+     */
+    private long expireMillis;
+}
@@ -0,0 +1,253 @@
+package com.hmdp.utils;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.BiFunction;
+import java.util.function.Function;
+
+/**
+ * 启动时的缓存预热：按热度分页读取数据库，多个线程并行地用管道批量写入逻辑过期缓存
+ * 调用线程等待预热比例达到readyRatio（或超时、或所有页都已处理但失败的页过多）后返回，剩余的在后台继续；
+ * 返回后应用即进入ACCEPTING_TRAFFIC状态，是否真正就绪由CacheWarmUpHealthIndicator在readiness健康组中判断
+ */
+@Slf4j
+@Component
+public class CacheWarmer {
+
+    private final CacheClient cacheClient;
+
+    /**
+     * 是否在启动时预热
+     */
+    @Value("${hmdp.cache.warm-up.enabled:true}")
+    private boolean enabled;
+
+    /**
+     * 每个前缀最多预热的数量，只预热最热的部分
+     */
+    @Value("${hmdp.cache.warm-up.max-keys:10000}")
+    private long maxKeys;
+
+    /**
+     * 每页读取的数量，也是每次管道写入的数量
+     */
+    @Value("${hmdp.cache.warm-up.page-size:500}")
+    private int pageSize;
+
+    /**
+     * 同时读取、写入的页数
+     */
+    @Value("${hmdp.cache.warm-up.parallelism:4}")
+    private int parallelism;
+
+    /**
+     * 预热比例达到该值后才认为应用就绪
+     */
+    @Value("${hmdp.cache.warm-up.ready-ratio:0.8}")
+    private double readyRatio;
+
+    /**
+     * 等待就绪的最长时间，超时后不再等待，剩余的在后台继续预热
+     */
+    @Value("${hmdp.cache.warm-up.ready-timeout-ms:30000}")
+    private long readyTimeoutMillis;
+
+    /**
+     * key前缀 -> 预热进度
+     */
+    private final Map<String, Progress> progresses = new ConcurrentHashMap<>();
+
+    public CacheWarmer(CacheClient cacheClient) {
+        this.cacheClient = cacheClient;
+    }
+
+    /**
+     * 预热逻辑过期缓存，等待预热比例达到readyRatio或超时后返回
+     *
+     * @param keyPrefix
+     * @param total      数据总数，超过maxKeys时只预热前maxKeys个
+     * @param pageLoader 页码（从1开始）、每页数量 -> 该页的数据，按热度从高到低排序
+     * @param idOf       数据 -> id
+     * @param timeout    逻辑过期时间
+     * @param unit
+     */
+    public <R, ID> void warmUp(String keyPrefix, long total, BiFunction<Integer, Integer, List<R>> pageLoader,
+                               Function<R, ID> idOf, long timeout, TimeUnit unit) {
+        long target = Math.min(total, maxKeys);
+        if (!enabled || target <= 0 || pageSize <= 0) {
+            return;
+        }
+        int pages = (int) ((target + pageSize - 1) / pageSize);
+        Progress progress = new Progress(keyPrefix, target, pages, (long) Math.ceil(target * readyRatio));
+        progresses.put(keyPrefix, progress);
+        AtomicInteger threadIndex = new AtomicInteger();
+        ExecutorService executor = Executors.newFixedThreadPool(Math.max(1, Math.min(parallelism, pages)), r -> {
+            Thread thread = new Thread(r, "cache-warm-up-" + threadIndex.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        // 按页码顺序提交，最热的数据最先写入
+        for (int page = 1; page <= pages; page++) {
+            int current = page;
+            executor.execute(() -> warmUpPage(progress, current, pageLoader, idOf, timeout, unit));
+        }
+        executor.shutdown();
+        if (progress.awaitReady(readyTimeoutMillis)) {
+            log.info("缓存预热 {}：{}ms 就绪，已预热 {}/{}", keyPrefix, progress.readyMillis, progress.warmed.sum(), target);
+        } else if (progress.isFinished()) {
+            log.error("缓存预热 {}：{}页失败，只预热了 {}/{}，未达到就绪比例{}", keyPrefix, progress.failedPages.sum(),
+                    progress.warmed.sum(), target, readyRatio);
+        } else {
+            log.warn("缓存预热 {}：等待{}ms未就绪，已预热 {}/{}，剩余的在后台继续", keyPrefix, readyTimeoutMillis,
+                    progress.warmed.sum(), target);
+        }
+    }
+
+    private <R, ID> void warmUpPage(Progress progress, int page, BiFunction<Integer, Integer, List<R>> pageLoader,
+                                    Function<R, ID> idOf, long timeout, TimeUnit unit) {
+        try {
+            List<R> records = pageLoader.apply(page, pageSize);
+            // 最后一页只取到target为止
+            long remaining = progress.target - (long) (page - 1) * pageSize;
+            if (records.size() > remaining) {
+                records = records.subList(0, (int) remaining);
+            }
+            Map<ID, R> values = new LinkedHashMap<>();
+            for (R r : records) {
+                values.put(idOf.apply(r), r);
+            }
+            cacheClient.setBatchWithLogicExpire(progress.keyPrefix, values, timeout, unit);
+            progress.warmed.add(values.size());
+        } catch (Exception e) {
+            progress.failedPages.increment();
+            log.error("缓存预热 {} 第{}页失败", progress.keyPrefix, page, e);
+        } finally {
+            progress.pageDone();
+        }
+    }
+
+    /**
+     * 所有前缀的预热比例是否都已达到readyRatio，没有预热任何前缀时返回true
+     *
+     * @return
+     */
+    public boolean isReady() {
+        for (Progress progress : progresses.values()) {
+            if (!progress.isReady()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * 预热统计信息
+     *
+     * @return key前缀 -> 统计信息
+     */
+    public Map<String, Map<String, Object>> stats() {
+        Map<String, Map<String, Object>> stats = new LinkedHashMap<>();
+        progresses.forEach((keyPrefix, progress) -> stats.put(keyPrefix, progress.stats()));
+        return stats;
+    }
+
+    /**
+     * 一个前缀的预热进度
+     */
+    private static class Progress {
+        private final String keyPrefix;
+        private final long target;
+        private final int pages;
+        private final long readyCount;
+        private final long begin = System.currentTimeMillis();
+        private final LongAdder warmed = new LongAdder();
+        private final LongAdder failedPages = new LongAdder();
+        private int donePages;
+        private volatile long readyMillis = -1;
+        private volatile long finishedMillis = -1;
+
+        Progress(String keyPrefix, long target, int pages, long readyCount) {
+            this.keyPrefix = keyPrefix;
+            this.target = target;
+            this.pages = pages;
+            this.readyCount = readyCount;
+        }
+
+        synchronized void pageDone() {
+            donePages++;
+            if (readyMillis < 0 && isReady()) {
+                readyMillis = System.currentTimeMillis() - begin;
+            }
+            if (isFinished()) {
+                finishedMillis = System.currentTimeMillis() - begin;
+                if (failedPages.sum() > 0) {
+                    log.warn("缓存预热 {}：{}ms 完成，预热 {}/{}，失败{}页", keyPrefix, finishedMillis, warmed.sum(), target,
+                            failedPages.sum());
+                } else {
+                    log.info("缓存预热 {}：{}ms 完成，预热 {}/{}", keyPrefix, finishedMillis, warmed.sum(), target);
+                }
+            }
+            notifyAll();
+        }
+
+        /**
+         * 成功预热的数量达到readyCount，或所有页都已成功处理（数据库中的数据少于total时）；
+         * 有页失败时只按成功预热的数量判断
+         */
+        synchronized boolean isReady() {
+            return warmed.sum() >= readyCount || (isFinished() && failedPages.sum() == 0);
+        }
+
+        synchronized boolean isFinished() {
+            return donePages == pages;
+        }
+
+        /**
+         * 等待就绪，超时或所有页都已处理仍未就绪时返回false
+         */
+        synchronized boolean awaitReady(long timeoutMillis) {
+            long deadline = System.currentTimeMillis() + timeoutMillis;
+            while (!isReady()) {
+                if (isFinished()) {
+                    // 失败的页不会再重试，不可能就绪
+                    return false;
+                }
+                long remaining = deadline - System.currentTimeMillis();
+                if (remaining <= 0) {
+                    return false;
+                }
+                try {
+                    wait(remaining);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        synchronized Map<String, Object> stats() {
+            Map<String, Object> stats = new LinkedHashMap<>();
+            stats.put("target", target);
+            stats.put("warmed", warmed.sum());
+            stats.put("pages", pages);
+            stats.put("donePages", donePages);
+            stats.put("failedPages", failedPages.sum());
+            stats.put("ready", isReady());
+            stats.put("readyMillis", readyMillis);
+            stats.put("finishedMillis", finishedMillis);
+            return stats;
+        }
+    }
+}
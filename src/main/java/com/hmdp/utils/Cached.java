@@ -0,0 +1,38 @@
+package com.hmdp.utils;
+
+import java.lang.annotation.Documented;
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 读缓存：方法的返回值通过CacheClient缓存，缓存未命中时才执行方法
+ * 返回值类型（包括泛型，如List<Voucher>）、key的取值方式在第一次调用时解析，之后不再反射查找
+ * 只对通过代理的调用生效，同一个类中的调用需要通过AopContext.currentProxy()
+ */
+@Target(ElementType.METHOD)
+@Retention(RetentionPolicy.RUNTIME)
+@Documented
+public @interface Cached {
+
+    /**
+     * key前缀，完整的key = 前缀 + key参数的值
+     */
+    String prefix();
+
+    /**
+     * 作为key的参数：参数名，或者 参数名.属性名；为空时使用第一个参数
+     */
+    String key() default "";
+
+    /**
+     * 有效期，逻辑过期策略下是逻辑过期时间
+     */
+    long ttl() default 30;
+
+    TimeUnit unit() default TimeUnit.MINUTES;
+
+    CacheStrategy strategy() default CacheStrategy.PASS_THROUGH;
+}
@@ -0,0 +1,219 @@
+package com.hmdp.utils;
+
+import cn.hutool.cache.CacheUtil;
+import cn.hutool.cache.impl.TimedCache;
+import cn.hutool.core.lang.hash.MurmurHash;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 热点key探测
+ * 按采样率把key的访问记录到count-min sketch中，每个窗口所有计数减半（稳定访问时计数约为每个窗口访问量的2倍），
+ * 估算的访问速率超过阈值的key升级为热点key，缓存值保存在本节点，有效期很短；
+ * 热点key单独精确计数，一个窗口内的速率低于阈值的一半时降级
+ */
+@Component
+public class HotKeyDetector {
+
+    @Value("${hmdp.cache.hot-key.enabled:true}")
+    private boolean enabled;
+
+    /**
+     * 采样率，1表示记录所有访问
+     */
+    @Value("${hmdp.cache.hot-key.sample-rate:1.0}")
+    private double sampleRate;
+
+    /**
+     * 统计窗口
+     */
+    @Value("${hmdp.cache.hot-key.window-ms:1000}")
+    private long windowMillis;
+
+    /**
+     * 每秒访问次数达到该值升级为热点key
+     */
+    @Value("${hmdp.cache.hot-key.threshold-qps:100}")
+    private long thresholdQps;
+
+    /**
+     * 热点key最大数量
+     */
+    @Value("${hmdp.cache.hot-key.max-keys:100}")
+    private int maxKeys;
+
+    /**
+     * 热点key本地缓存的有效期
+     */
+    @Value("${hmdp.cache.hot-key.local-ttl-ms:1000}")
+    private long localTtlMillis;
+
+    @Value("${hmdp.cache.hot-key.sketch-width:4096}")
+    private int width;
+
+    @Value("${hmdp.cache.hot-key.sketch-depth:4}")
+    private int depth;
+
+    /**
+     * count-min sketch：depth行 * width列
+     */
+    private AtomicLongArray sketch;
+
+    /**
+     * 热点key -> 访问统计
+     */
+    private final Map<String, HotKey> hotKeys = new ConcurrentHashMap<>();
+
+    /**
+     * 热点key的本地缓存
+     */
+    private TimedCache<String, Object> hotValues;
+
+    private ScheduledExecutorService windowExecutor;
+
+    private final LongAdder promoted = new LongAdder();
+    private final LongAdder demoted = new LongAdder();
+
+    @PostConstruct
+    private void init() {
+        sketch = new AtomicLongArray(width * depth);
+        hotValues = CacheUtil.newTimedCache(localTtlMillis);
+        hotValues.schedulePrune(localTtlMillis);
+        windowExecutor = Executors.newSingleThreadScheduledExecutor();
+        windowExecutor.scheduleAtFixedRate(this::rollWindow, windowMillis, windowMillis, TimeUnit.MILLISECONDS);
+    }
+
+    @PreDestroy
+    private void destroy() {
+        windowExecutor.shutdownNow();
+        hotValues.cancelPruneSchedule();
+    }
+
+    /**
+     * 记录一次访问
+     *
+     * @param key
+     * @return 是否是热点key
+     */
+    public boolean record(String key) {
+        if (!enabled) {
+            return false;
+        }
+        HotKey hotKey = hotKeys.get(key);
+        if (hotKey != null) {
+            hotKey.accesses.increment();
+            return true;
+        }
+        if (sampleRate < 1 && ThreadLocalRandom.current().nextDouble() >= sampleRate) {
+            return false;
+        }
+        long estimate = (long) (increment(key) / sampleRate);
+        // 计数每个窗口减半，稳定访问时约为每个窗口访问量的2倍
+        if (estimate >= 2 * thresholdQps * windowMillis / 1000 && hotKeys.size() < maxKeys
+                && hotKeys.putIfAbsent(key, new HotKey()) == null) {
+            promoted.increment();
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * 查询热点key的本地缓存
+     */
+    public Object get(String key) {
+        return hotValues.get(key, false);
+    }
+
+    /**
+     * 热点key的值保存到本地，非热点key忽略
+     */
+    public void put(String key, Object value) {
+        if (hotKeys.containsKey(key)) {
+            hotValues.put(key, value);
+        }
+    }
+
+    public void evict(String key) {
+        hotValues.remove(key);
+    }
+
+    /**
+     * 当前的热点key及每秒访问次数，按访问次数从高到低排序
+     */
+    public List<Map<String, Object>> hotKeys() {
+        List<Map<String, Object>> result = new ArrayList<>();
+        hotKeys.forEach((key, hotKey) -> {
+            Map<String, Object> item = new LinkedHashMap<>();
+            item.put("key", key);
+            item.put("qps", hotKey.qps);
+            item.put("promotedAt", hotKey.promotedAt);
+            result.add(item);
+        });
+        result.sort(Comparator.comparingDouble((Map<String, Object> item) -> (Double) item.get("qps")).reversed());
+        return result;
+    }
+
+    public Map<String, Object> stats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("hotKeys", hotKeys.size());
+        stats.put("promoted", promoted.sum());
+        stats.put("demoted", demoted.sum());
+        stats.put("localValues", hotValues.size());
+        return stats;
+    }
+
+    /**
+     * 递增所有行的计数，返回最小值作为估算的访问次数
+     */
+    private long increment(String key) {
+        long[] hash = MurmurHash.hash128(key.getBytes(StandardCharsets.UTF_8));
+        long min = Long.MAX_VALUE;
+        for (int i = 0; i < depth; i++) {
+            int column = (int) (((hash[0] + i * hash[1]) & Long.MAX_VALUE) % width);
+            min = Math.min(min, sketch.incrementAndGet(i * width + column));
+        }
+        return min;
+    }
+
+    /**
+     * 窗口结束：计算热点key的访问速率并降级，所有计数减半
+     */
+    private void rollWindow() {
+        hotKeys.forEach((key, hotKey) -> {
+            hotKey.qps = hotKey.accesses.sumThenReset() * 1000.0 / windowMillis;
+            if (hotKey.qps < thresholdQps / 2.0 && hotKeys.remove(key, hotKey)) {
+                hotValues.remove(key);
+                demoted.increment();
+            }
+        });
+        for (int i = 0; i < sketch.length(); i++) {
+            long value = sketch.get(i);
+            if (value != 0) {
+                // 与并发的递增冲突时少减一些，不影响估算
+                sketch.compareAndSet(i, value, value >> 1);
+            }
+        }
+    }
+
+    private static class HotKey {
+        private final LongAdder accesses = new LongAdder();
+        private final long promotedAt = System.currentTimeMillis();
+        private volatile double qps;
+    }
+}
@@ -0,0 +1,109 @@
+package com.hmdp.utils;
+
+import cn.hutool.core.convert.Convert;
+import cn.hutool.json.JSON;
+import cn.hutool.json.JSONNull;
+import cn.hutool.json.JSONUtil;
+import org.springframework.stereotype.Component;
+
+import java.lang.reflect.Type;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+
+/**
+ * JSON编码：原有的缓存格式，逻辑过期的数据存为RedisData
+ * 数据可以是任意JSON值：对象、数组，以及字符串、数字、布尔等标量；逻辑过期的数据可以为null（数据库中已删除）
+ */
+@Component
+public class JsonCacheCodec implements CacheCodec {
+
+    public static final String NAME = "json";
+
+    @Override
+    public String name() {
+        return NAME;
+    }
+
+    @Override
+    public byte[] encode(Object data, long expireMillis) {
+        if (expireMillis <= 0) {
+            return toJson(data).getBytes(StandardCharsets.UTF_8);
+        }
+        RedisData redisData = new RedisData();
+        redisData.setData(data);
+        redisData.setExpireTime(LocalDateTime.ofInstant(Instant.ofEpochMilli(expireMillis), ZoneId.systemDefault()));
+        return JSONUtil.toJsonStr(redisData).getBytes(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * JSON值的第一个字符：对象、数组、字符串、数字、true、false、null
+     */
+    @Override
+    public boolean supports(byte[] bytes) {
+        int i = 0;
+        while (i < bytes.length && Character.isWhitespace(bytes[i])) {
+            i++;
+        }
+        if (i == bytes.length) {
+            return false;
+        }
+        byte first = bytes[i];
+        return first == '{' || first == '[' || first == '"' || first == '-' || (first >= '0' && first <= '9')
+                || first == 't' || first == 'f' || first == 'n';
+    }
+
+    @Override
+    public <R> CacheValue<R> decode(byte[] bytes, Type type, boolean logicExpire) {
+        String json = new String(bytes, StandardCharsets.UTF_8).trim();
+        if (!logicExpire) {
+            // 数据可能是对象、数组（如List<Voucher>）或标量
+            return new CacheValue<>(toBean(parse(json), type), 0);
+        }
+        // 先解析成RedisData，再把其中的JSONObject、JSONArray或标量转换成目标类型
+        RedisData redisData = JSONUtil.toBean(json, RedisData.class);
+        R data = toBean(redisData.getData(), type);
+        long expireMillis = redisData.getExpireTime().atZone(ZoneId.systemDefault()).toInstant().toEpochMilli();
+        return new CacheValue<>(data, expireMillis);
+    }
+
+    /**
+     * 标量单独处理：JSONUtil.toJsonStr对字符串不加引号，对数字、布尔转换成空对象
+     */
+    private static String toJson(Object data) {
+        if (data == null) {
+            return "null";
+        }
+        if (data instanceof CharSequence || data instanceof Character || data instanceof Enum) {
+            return JSONUtil.quote(data.toString());
+        }
+        if (data instanceof Number || data instanceof Boolean) {
+            return data.toString();
+        }
+        return JSONUtil.toJsonStr(data);
+    }
+
+    private static Object parse(String json) {
+        char first = json.charAt(0);
+        if (first == '{' || first == '[') {
+            return JSONUtil.parse(json);
+        }
+        if ("null".equals(json)) {
+            return null;
+        }
+        // 标量放到数组中解析
+        return JSONUtil.parseArray("[" + json + "]").get(0);
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <R> R toBean(Object value, Type type) {
+        if (value == null || value instanceof JSONNull) {
+            return null;
+        }
+        if (value instanceof JSON) {
+            return ((JSON) value).toBean(type);
+        }
+        return (R) Convert.convert(type, value);
+    }
+}
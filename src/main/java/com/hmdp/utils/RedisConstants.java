@@ -13,12 +13,38 @@ public class RedisConstants {
     public static final Long CACHE_SHOP_TTL = 30L;
     public static final String CACHE_SHOP_KEY = "cache:shop:";
 
+    public static final Long CACHE_USER_TTL = 30L;
+    public static final String CACHE_USER_KEY = "cache:user:";
+
+    // 注解中使用的有效期必须是基本类型的常量
+    public static final long CACHE_USER_INFO_TTL = 30L;
+    public static final String CACHE_USER_INFO_KEY = "cache:user:info:";
+
+    public static final long CACHE_VOUCHER_SHOP_TTL = 10L;
+    public static final String CACHE_VOUCHER_SHOP_KEY = "cache:voucher:shop:";
+
     public static final String CACHE_SHOPTYPES = "cache:shoptypes";
 
+    public static final String CACHE_INVALIDATE_CHANNEL = "cache:invalidate";
+    public static final String CACHE_BLOOM_CHANNEL = "cache:bloom";
+
     public static final String LOCK_SHOP_KEY = "lock:shop:";
     public static final Long LOCK_SHOP_TTL = 10L;
 
+    public static final String ID_WORKER_KEY = "id:worker:";
+
     public static final String SECKILL_STOCK_KEY = "seckill:stock:";
+    public static final String SECKILL_ORDER_KEY = "seckill:order:";
+    // 分片库存：同一分片的库存key和下单用户key使用相同的hash tag，redis集群下位于同一个slot
+    public static final String SECKILL_STOCK_SHARD_KEY = "seckill:stock:{%s:%s}";
+    public static final String SECKILL_ORDER_SHARD_KEY = "seckill:order:{%s:%s}";
+    public static final String SECKILL_ORDER_STREAM_KEY = "stream.orders";
+    public static final String SECKILL_ORDER_DEAD_STREAM_KEY = "stream.orders.dead";
+    public static final String SECKILL_FLAG_CHANNEL = "seckill:flag";
+    public static final String SECKILL_BUDGET_KEY = "seckill:budget:";
+    public static final String SECKILL_ORDER_STATUS_KEY = "seckill:order:status:";
+    public static final Long SECKILL_ORDER_STATUS_TTL = 30L;
+    public static final String SECKILL_ORDER_STATUS_CHANNEL = "seckill:order:status";
     public static final String BLOG_LIKED_KEY = "blog:liked:";
     public static final String FEED_KEY = "feed:";
     public static final String SHOP_GEO_KEY = "shop:geo:";
@@ -1,12 +1,23 @@
 package com.hmdp.utils;
 
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.data.redis.core.StringRedisTemplate;
 import org.springframework.stereotype.Component;
 
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
 import java.time.LocalDateTime;
 import java.time.ZoneOffset;
 import java.time.format.DateTimeFormatter;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
 
+@Slf4j
 @Component
 public class RedisIdWorker {
 
@@ -24,6 +35,71 @@ public class RedisIdWorker {
      * 位移
      */
     private static final int BIT_COUNT = 32;
+    /**
+     * 日期格式，线程安全，不需要每次创建
+     */
+    private static final DateTimeFormatter DATE_FORMATTER = DateTimeFormatter.ofPattern("yyyy:MM:dd");
+
+    /**
+     * 号段大小：每次从redis申请的序列号个数，小于等于1时每个id都访问一次redis
+     */
+    @Value("${hmdp.id-worker.segment-size:1000}")
+    private int segmentSize;
+
+    /**
+     * 当前号段剩余的序列号比例低于该值时，后台预取下一个号段
+     */
+    @Value("${hmdp.id-worker.prefetch-ratio:0.2}")
+    private double prefetchRatio;
+
+    /**
+     * id生成策略：segment（redis号段）或snowflake（本地生成，只在启动和心跳时访问redis）
+     */
+    @Value("${hmdp.id-worker.strategy:segment}")
+    private String strategy;
+
+    /**
+     * snowflake策略下机器id的租约时间
+     */
+    @Value("${hmdp.id-worker.worker-lease-seconds:30}")
+    private long workerLeaseSeconds;
+
+    /**
+     * snowflake策略下允许的最大时钟回拨秒数
+     */
+    @Value("${hmdp.id-worker.max-backward-seconds:5}")
+    private long maxBackwardSeconds;
+
+    /**
+     * snowflake策略的本地id生成器，segment策略下为null
+     */
+    private SnowflakeIdWorker snowflakeIdWorker;
+
+    /**
+     * 业务前缀 -> 号段缓冲
+     */
+    private final Map<String, SegmentBuffer> segmentBuffers = new ConcurrentHashMap<>();
+
+    /**
+     * 预取号段的线程
+     */
+    private final ExecutorService segmentPrefetchExecutor = Executors.newSingleThreadExecutor();
+
+    @PostConstruct
+    private void init() {
+        if ("snowflake".equalsIgnoreCase(strategy)) {
+            snowflakeIdWorker = new SnowflakeIdWorker(redisTemplate, workerLeaseSeconds, maxBackwardSeconds);
+            snowflakeIdWorker.start();
+        }
+    }
+
+    @PreDestroy
+    private void destroy() {
+        segmentPrefetchExecutor.shutdownNow();
+        if (snowflakeIdWorker != null) {
+            snowflakeIdWorker.stop();
+        }
+    }
 
     /**
      * id
@@ -32,12 +108,112 @@ public class RedisIdWorker {
      * @return
      */
     public long nextId(String keyPrefix) {
+        if (snowflakeIdWorker != null) {
+            // 本地生成，不访问redis
+            return snowflakeIdWorker.nextId();
+        }
         // 时间戳
         LocalDateTime now = LocalDateTime.now();
         long timestamp = now.toEpochSecond(ZoneOffset.UTC) - BASIC_TIMESTAMP;
         // 序列号
-        String date = now.format(DateTimeFormatter.ofPattern("yyyy:MM:dd"));
-        Long count = redisTemplate.opsForValue().increment("inc:" + keyPrefix + ":" + date);
+        String date = now.format(DATE_FORMATTER);
+        String key = "inc:" + keyPrefix + ":" + date;
+        long count = segmentSize > 1 ? nextSequence(keyPrefix, key) : redisTemplate.opsForValue().increment(key);
         return timestamp << BIT_COUNT | count;
     }
+
+    /**
+     * 从本地号段中获取序列号，每天的key不同，日期变化时换成新的号段缓冲
+     *
+     * @param keyPrefix
+     * @param key
+     * @return
+     */
+    private long nextSequence(String keyPrefix, String key) {
+        SegmentBuffer buffer = segmentBuffers.get(keyPrefix);
+        if (buffer == null || !buffer.key.equals(key)) {
+            buffer = segmentBuffers.compute(keyPrefix,
+                    (prefix, old) -> old == null || !old.key.equals(key) ? new SegmentBuffer(key) : old);
+        }
+        return buffer.next();
+    }
+
+    /**
+     * 号段：[start, end]
+     */
+    private static class Segment {
+        private final AtomicLong cursor;
+        private final long end;
+
+        Segment(long start, long end) {
+            this.cursor = new AtomicLong(start);
+            this.end = end;
+        }
+    }
+
+    /**
+     * 号段缓冲：当前号段 + 预取的下一个号段
+     */
+    private class SegmentBuffer {
+        private final String key;
+        private final long prefetchThreshold;
+        private volatile Segment current;
+        private Future<Segment> nextSegment;
+
+        SegmentBuffer(String key) {
+            this.key = key;
+            this.prefetchThreshold = Math.max(1, (long) (segmentSize * prefetchRatio));
+            this.current = fetchSegment();
+        }
+
+        long next() {
+            while (true) {
+                Segment segment = current;
+                long value = segment.cursor.getAndIncrement();
+                if (value <= segment.end) {
+                    // 剩余数量刚好降到阈值时预取，每个号段只触发一次
+                    if (segment.end - value == prefetchThreshold) {
+                        prefetch();
+                    }
+                    return value;
+                }
+                // 当前号段用完，切换到下一个号段
+                synchronized (this) {
+                    if (current == segment) {
+                        current = takeNextSegment();
+                    }
+                }
+            }
+        }
+
+        private synchronized void prefetch() {
+            if (nextSegment == null) {
+                nextSegment = segmentPrefetchExecutor.submit(this::fetchSegment);
+            }
+        }
+
+        private synchronized Segment takeNextSegment() {
+            Future<Segment> future = nextSegment;
+            nextSegment = null;
+            if (future != null) {
+                try {
+                    return future.get();
+                } catch (Exception e) {
+                    log.warn("预取号段失败，重新申请：{}", e.getMessage());
+                }
+            }
+            return fetchSegment();
+        }
+
+        /**
+         * 申请号段 INCRBY inc:order:yyyy:MM:dd segmentSize
+         */
+        private Segment fetchSegment() {
+            Long end = redisTemplate.opsForValue().increment(key, segmentSize);
+            if (end == null) {
+                throw new IllegalStateException("申请号段失败，key = " + key);
+            }
+            return new Segment(end - segmentSize + 1, end);
+        }
+    }
 }
@@ -0,0 +1,175 @@
+package com.hmdp.utils;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.data.redis.connection.Message;
+import org.springframework.data.redis.connection.MessageListener;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.stereotype.Component;
+
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Consumer;
+
+import static com.hmdp.utils.RedisConstants.SECKILL_FLAG_CHANNEL;
+
+/**
+ * 秒杀券本地状态标记：已售罄、已结束、未开始
+ * 售罄和结束由第一个发现的节点通过redis发布订阅广播给所有节点，之后的请求在本地直接拒绝，不再访问redis；
+ * 补充库存同样广播给所有节点，清除标记并通知按库存计算的本地状态（秒杀券缓存、限流器）重新创建
+ */
+@Slf4j
+@Component
+public class SeckillFlags implements MessageListener {
+
+    public static final int SOLD_OUT = 1;
+    public static final int ENDED = 1 << 1;
+    public static final int NOT_STARTED = 1 << 2;
+
+    private static final String RESET = "RESET";
+    private static final String STOCK_ADDED = "STOCK";
+
+    private final StringRedisTemplate redisTemplate;
+
+    /**
+     * 优惠券id -> 状态位
+     */
+    private final Map<Long, Integer> flags = new ConcurrentHashMap<>();
+
+    /**
+     * 优惠券id -> 秒杀开始时间（毫秒），只在本地记录，到时间自动失效，不需要广播
+     */
+    private final Map<Long, Long> notStartedUntil = new ConcurrentHashMap<>();
+
+    /**
+     * 补充库存的监听器，参数为优惠券id
+     */
+    private final List<Consumer<Long>> stockListeners = new CopyOnWriteArrayList<>();
+
+    public SeckillFlags(StringRedisTemplate redisTemplate) {
+        this.redisTemplate = redisTemplate;
+    }
+
+    /**
+     * 本地判断是否可以直接拒绝
+     *
+     * @param voucherId
+     * @return 状态位，0表示需要继续到redis判断
+     */
+    public int check(Long voucherId) {
+        Integer flag = flags.get(voucherId);
+        if (flag != null) {
+            return flag;
+        }
+        Long begin = notStartedUntil.get(voucherId);
+        if (begin != null) {
+            if (System.currentTimeMillis() < begin) {
+                return NOT_STARTED;
+            }
+            notStartedUntil.remove(voucherId, begin);
+        }
+        return 0;
+    }
+
+    /**
+     * 标记售罄并广播
+     *
+     * @param voucherId
+     */
+    public void markSoldOut(Long voucherId) {
+        mark(voucherId, SOLD_OUT);
+    }
+
+    /**
+     * 标记已结束并广播
+     *
+     * @param voucherId
+     */
+    public void markEnded(Long voucherId) {
+        mark(voucherId, ENDED);
+    }
+
+    /**
+     * 标记未开始，只在本地记录
+     *
+     * @param voucherId
+     * @param beginMillis 秒杀开始时间
+     */
+    public void markNotStarted(Long voucherId, long beginMillis) {
+        notStartedUntil.put(voucherId, beginMillis);
+    }
+
+    /**
+     * 库存补充后清除所有节点的标记
+     *
+     * @param voucherId
+     */
+    public void reset(Long voucherId) {
+        apply(RESET, voucherId);
+        redisTemplate.convertAndSend(SECKILL_FLAG_CHANNEL, RESET + ":" + voucherId);
+    }
+
+    /**
+     * 库存补充后清除所有节点的标记，并通知所有节点的监听器
+     *
+     * @param voucherId
+     */
+    public void stockAdded(Long voucherId) {
+        apply(STOCK_ADDED, voucherId);
+        redisTemplate.convertAndSend(SECKILL_FLAG_CHANNEL, STOCK_ADDED + ":" + voucherId);
+    }
+
+    /**
+     * 注册补充库存的监听器，本节点和其它节点补充库存时都会调用
+     *
+     * @param listener 参数为优惠券id
+     */
+    public void onStockAdded(Consumer<Long> listener) {
+        stockListeners.add(listener);
+    }
+
+    private void mark(Long voucherId, int flag) {
+        // 本地状态发生变化时才广播，同一节点不会重复发送
+        if (apply(String.valueOf(flag), voucherId)) {
+            redisTemplate.convertAndSend(SECKILL_FLAG_CHANNEL, flag + ":" + voucherId);
+        }
+    }
+
+    /**
+     * 接收其它节点广播的标记
+     */
+    @Override
+    public void onMessage(Message message, byte[] pattern) {
+        String body = new String(message.getBody(), StandardCharsets.UTF_8);
+        int index = body.indexOf(':');
+        try {
+            apply(body.substring(0, index), Long.valueOf(body.substring(index + 1)));
+        } catch (RuntimeException e) {
+            log.error("秒杀券状态消息格式错误：{}", body);
+        }
+    }
+
+    /**
+     * 修改本地状态
+     *
+     * @return 状态是否发生了变化
+     */
+    private boolean apply(String type, Long voucherId) {
+        if (STOCK_ADDED.equals(type)) {
+            stockListeners.forEach(listener -> listener.accept(voucherId));
+        }
+        if (RESET.equals(type) || STOCK_ADDED.equals(type)) {
+            notStartedUntil.remove(voucherId);
+            return flags.remove(voucherId) != null;
+        }
+        int flag = Integer.parseInt(type);
+        Integer old = flags.get(voucherId);
+        if (old != null && (old & flag) == flag) {
+            return false;
+        }
+        flags.merge(voucherId, flag, (a, b) -> a | b);
+        return true;
+    }
+}
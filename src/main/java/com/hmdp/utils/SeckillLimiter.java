@@ -0,0 +1,228 @@
+package com.hmdp.utils;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.stereotype.Component;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+import static com.hmdp.utils.RedisConstants.SECKILL_BUDGET_KEY;
+
+/**
+ * 秒杀限流：每张秒杀券一个本地令牌桶，速率和容量按库存计算，超出的请求在访问redis之前直接拒绝；
+ * 可选的redis全局预算限制所有节点放行的总请求数，上限和已放行数都保存在redis中，所有节点按同一个上限判断；
+ * 补充库存时通过秒杀券状态广播通知所有节点按新库存重新创建令牌桶
+ */
+@Component
+public class SeckillLimiter {
+
+    /**
+     * 全局预算用完后，每隔这么久再访问一次redis，检查补充库存后增加的预算
+     */
+    private static final long GLOBAL_RECHECK_MILLIS = 1000;
+
+    /**
+     * 全局预算判断lua脚本
+     */
+    private static final DefaultRedisScript<Long> BUDGET_SCRIPT;
+
+    static {
+        BUDGET_SCRIPT = new DefaultRedisScript<>();
+        BUDGET_SCRIPT.setLocation(new ClassPathResource("seckill_budget.lua"));
+        BUDGET_SCRIPT.setResultType(Long.class);
+    }
+
+    /**
+     * 增加全局预算上限lua脚本
+     */
+    private static final DefaultRedisScript<Long> BUDGET_ADD_SCRIPT;
+
+    static {
+        BUDGET_ADD_SCRIPT = new DefaultRedisScript<>();
+        BUDGET_ADD_SCRIPT.setLocation(new ClassPathResource("seckill_budget_add.lua"));
+        BUDGET_ADD_SCRIPT.setResultType(Long.class);
+    }
+
+    private final StringRedisTemplate redisTemplate;
+
+    /**
+     * 是否开启限流
+     */
+    @Value("${hmdp.seckill.limiter.enabled:true}")
+    private boolean enabled;
+
+    /**
+     * 每秒放行的请求数 = 库存 * 该系数
+     */
+    @Value("${hmdp.seckill.limiter.permits-per-second-per-stock:1.0}")
+    private double permitsPerSecondPerStock;
+
+    /**
+     * 令牌桶容量（允许的突发请求数） = 库存 * 该系数
+     */
+    @Value("${hmdp.seckill.limiter.burst-per-stock:2.0}")
+    private double burstPerStock;
+
+    /**
+     * 所有节点总共放行的请求数 = 库存 * 该系数，0表示不开启全局预算
+     */
+    @Value("${hmdp.seckill.limiter.global-budget-per-stock:0}")
+    private double globalBudgetPerStock;
+
+    private final Map<Long, Limiter> limiters = new ConcurrentHashMap<>();
+
+    public SeckillLimiter(StringRedisTemplate redisTemplate, SeckillFlags seckillFlags) {
+        this.redisTemplate = redisTemplate;
+        // 任意节点补充库存后，本节点下一次请求按新库存重新创建限流器
+        seckillFlags.onStockAdded(limiters::remove);
+    }
+
+    /**
+     * 尝试放行一个秒杀请求
+     *
+     * @param voucherId
+     * @param stock 秒杀券库存
+     * @return 是否放行
+     */
+    public boolean tryAcquire(Long voucherId, int stock) {
+        if (!enabled) {
+            return true;
+        }
+        Limiter limiter = limiters.computeIfAbsent(voucherId, id -> new Limiter(stock));
+        if (!limiter.bucket.tryAcquire() || !tryAcquireGlobal(voucherId, limiter)) {
+            limiter.shed.increment();
+            return false;
+        }
+        limiter.admitted.increment();
+        return true;
+    }
+
+    private boolean tryAcquireGlobal(Long voucherId, Limiter limiter) {
+        if (globalBudgetPerStock <= 0) {
+            return true;
+        }
+        // 全局预算用完后本地记住，之后的请求不再访问redis，只是每隔GLOBAL_RECHECK_MILLIS重新检查一次
+        long now = System.currentTimeMillis();
+        long exhaustedMillis = limiter.globalExhaustedMillis;
+        if (exhaustedMillis > 0) {
+            if (now - exhaustedMillis < GLOBAL_RECHECK_MILLIS) {
+                return false;
+            }
+            limiter.globalExhaustedMillis = now;
+        }
+        // 上限保存在redis中，与本节点创建限流器时的库存无关；只有上限不存在时才按本节点的库存写入
+        Long admitted = redisTemplate.execute(BUDGET_SCRIPT, Collections.singletonList(SECKILL_BUDGET_KEY + voucherId),
+                String.valueOf(limiter.initialBudget));
+        if (admitted == null || admitted == 0) {
+            limiter.globalExhaustedMillis = now;
+            return false;
+        }
+        limiter.globalExhaustedMillis = 0;
+        return true;
+    }
+
+    /**
+     * 限流统计
+     *
+     * @param voucherId
+     * @return 放行数、拒绝数
+     */
+    public Map<String, Long> stats(Long voucherId) {
+        Map<String, Long> stats = new HashMap<>();
+        Limiter limiter = limiters.get(voucherId);
+        stats.put("admitted", limiter == null ? 0L : limiter.admitted.sum());
+        stats.put("shed", limiter == null ? 0L : limiter.shed.sum());
+        return stats;
+    }
+
+    /**
+     * 创建秒杀券时写入全局预算的上限 = 库存 * 系数
+     *
+     * @param voucherId
+     * @param stock
+     */
+    public void initBudget(Long voucherId, int stock) {
+        long budget = (long) (stock * globalBudgetPerStock);
+        if (enabled && budget > 0) {
+            redisTemplate.opsForHash().put(SECKILL_BUDGET_KEY + voucherId, "limit", String.valueOf(budget));
+        }
+    }
+
+    /**
+     * 补充库存：全局预算的上限增加 补充数 * 系数，所有节点在GLOBAL_RECHECK_MILLIS内按新上限判断；
+     * 本节点的令牌桶通过SeckillFlags.stockAdded的广播重新创建
+     *
+     * @param voucherId
+     * @param count 补充的库存
+     */
+    public void addStock(Long voucherId, int count) {
+        long budget = (long) (count * globalBudgetPerStock);
+        if (enabled && budget > 0) {
+            redisTemplate.execute(BUDGET_ADD_SCRIPT, Collections.singletonList(SECKILL_BUDGET_KEY + voucherId),
+                    String.valueOf(budget));
+        }
+    }
+
+    private class Limiter {
+        private final TokenBucket bucket;
+        /**
+         * redis中还没有全局预算上限时写入的上限
+         */
+        private final long initialBudget;
+        /**
+         * 全局预算用完的时间，0表示未用完
+         */
+        private volatile long globalExhaustedMillis;
+        private final LongAdder admitted = new LongAdder();
+        private final LongAdder shed = new LongAdder();
+
+        Limiter(int stock) {
+            double permitsPerSecond = Math.max(1, stock * permitsPerSecondPerStock);
+            long burst = Math.max(1, (long) (stock * burstPerStock));
+            this.bucket = new TokenBucket(permitsPerSecond, burst);
+            this.initialBudget = (long) (stock * globalBudgetPerStock);
+        }
+    }
+
+    /**
+     * 无锁令牌桶：只记录下一个令牌的理论到达时间，CAS更新
+     */
+    static class TokenBucket {
+        /**
+         * 生成一个令牌的时间（纳秒）
+         */
+        private final long intervalNanos;
+        /**
+         * 允许提前消费的时间，即桶的容量
+         */
+        private final long burstNanos;
+        private final AtomicLong nextFreeNanos;
+
+        TokenBucket(double permitsPerSecond, long burst) {
+            this.intervalNanos = Math.max(1, (long) (1_000_000_000L / permitsPerSecond));
+            this.burstNanos = intervalNanos * burst;
+            this.nextFreeNanos = new AtomicLong(System.nanoTime() - burstNanos);
+        }
+
+        boolean tryAcquire() {
+            while (true) {
+                long now = System.nanoTime();
+                long next = nextFreeNanos.get();
+                long newNext = Math.max(next, now - burstNanos) + intervalNanos;
+                if (newNext - now > 0) {
+                    return false;
+                }
+                if (nextFreeNanos.compareAndSet(next, newNext)) {
+                    return true;
+                }
+            }
+        }
+    }
+}
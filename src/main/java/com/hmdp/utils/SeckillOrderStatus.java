@@ -0,0 +1,175 @@
+package com.hmdp.utils;
+
+import cn.hutool.core.util.StrUtil;
+import com.hmdp.dto.Result;
+import com.hmdp.entity.VoucherOrder;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.data.redis.connection.Message;
+import org.springframework.data.redis.connection.MessageListener;
+import org.springframework.data.redis.connection.RedisStringCommands;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.types.Expiration;
+import org.springframework.stereotype.Component;
+import org.springframework.web.context.request.async.DeferredResult;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Collection;
+import java.util.Map;
+import java.util.Queue;
+import java.util.StringJoiner;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+
+import static com.hmdp.utils.RedisConstants.SECKILL_ORDER_STATUS_CHANNEL;
+import static com.hmdp.utils.RedisConstants.SECKILL_ORDER_STATUS_KEY;
+import static com.hmdp.utils.RedisConstants.SECKILL_ORDER_STATUS_TTL;
+
+/**
+ * 秒杀订单状态：秒杀成功时写入排队中，下单线程写入数据库后把结果写到redis（短有效期），客户端轮询redis，不查询数据库；
+ * 状态与下单用户一起保存（状态:用户id），只有下单用户可以查询；
+ * 长轮询的请求挂起在本地，订单状态通过redis发布订阅通知到所有节点
+ */
+@Slf4j
+@Component
+public class SeckillOrderStatus implements MessageListener {
+
+    /**
+     * 排队中
+     */
+    public static final int PENDING = 0;
+    /**
+     * 下单成功
+     */
+    public static final int SUCCESS = 1;
+    /**
+     * 下单失败
+     */
+    public static final int FAILED = 2;
+    /**
+     * 订单不存在：订单id错误、状态已过期或不是当前用户的订单
+     */
+    public static final int UNKNOWN = 3;
+
+    private final StringRedisTemplate redisTemplate;
+
+    /**
+     * 订单id -> 等待该订单状态的长轮询请求
+     */
+    private final Map<Long, Queue<DeferredResult<Result>>> waiters = new ConcurrentHashMap<>();
+
+    public SeckillOrderStatus(StringRedisTemplate redisTemplate) {
+        this.redisTemplate = redisTemplate;
+    }
+
+    /**
+     * 秒杀成功后保存排队中状态；下单线程可能已经写入了结果，只在不存在时写入
+     *
+     * @param orderId
+     * @param userId
+     */
+    public void savePending(Long orderId, Long userId) {
+        redisTemplate.opsForValue().setIfAbsent(SECKILL_ORDER_STATUS_KEY + orderId, PENDING + ":" + userId,
+                SECKILL_ORDER_STATUS_TTL, TimeUnit.MINUTES);
+    }
+
+    /**
+     * 保存一批订单的状态并通知所有节点
+     *
+     * @param voucherOrders
+     * @param status
+     */
+    public void save(Collection<VoucherOrder> voucherOrders, int status) {
+        if (voucherOrders.isEmpty()) {
+            return;
+        }
+        Expiration expiration = Expiration.from(SECKILL_ORDER_STATUS_TTL, TimeUnit.MINUTES);
+        StringJoiner message = new StringJoiner(",");
+        redisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            voucherOrders.forEach(voucherOrder -> connection.set(
+                    (SECKILL_ORDER_STATUS_KEY + voucherOrder.getId()).getBytes(StandardCharsets.UTF_8),
+                    (status + ":" + voucherOrder.getUserId()).getBytes(StandardCharsets.UTF_8),
+                    expiration, RedisStringCommands.SetOption.upsert()));
+            return null;
+        });
+        voucherOrders.forEach(voucherOrder -> message.add(voucherOrder.getId() + ":" + status));
+        redisTemplate.convertAndSend(SECKILL_ORDER_STATUS_CHANNEL, message.toString());
+    }
+
+    /**
+     * 查询订单状态
+     *
+     * @param orderId
+     * @param userId 当前用户，不是该用户的订单视为不存在
+     * @return
+     */
+    public int get(Long orderId, Long userId) {
+        String value = redisTemplate.opsForValue().get(SECKILL_ORDER_STATUS_KEY + orderId);
+        if (StrUtil.isBlank(value)) {
+            return UNKNOWN;
+        }
+        int index = value.indexOf(':');
+        if (index < 0 || !value.substring(index + 1).equals(String.valueOf(userId))) {
+            return UNKNOWN;
+        }
+        return Integer.parseInt(value.substring(0, index));
+    }
+
+    /**
+     * 查询订单状态，订单还在排队时挂起请求，直到状态变化或超时
+     *
+     * @param orderId
+     * @param userId 当前用户
+     * @param timeoutMs 最长等待时间
+     * @return
+     */
+    public DeferredResult<Result> await(Long orderId, Long userId, long timeoutMs) {
+        DeferredResult<Result> result = new DeferredResult<>(timeoutMs, Result.ok(PENDING));
+        int status = get(orderId, userId);
+        if (status != PENDING) {
+            result.setResult(Result.ok(status));
+            return result;
+        }
+        Queue<DeferredResult<Result>> queue = waiters.computeIfAbsent(orderId, id -> new ConcurrentLinkedQueue<>());
+        queue.add(result);
+        result.onCompletion(() -> {
+            queue.remove(result);
+            if (queue.isEmpty()) {
+                waiters.remove(orderId, queue);
+            }
+        });
+        // 注册之前状态可能已经变化，再检查一次
+        status = get(orderId, userId);
+        if (status != PENDING) {
+            result.setResult(Result.ok(status));
+        }
+        return result;
+    }
+
+    /**
+     * 接收订单状态通知，唤醒本地等待的请求
+     */
+    @Override
+    public void onMessage(Message message, byte[] pattern) {
+        String body = new String(message.getBody(), StandardCharsets.UTF_8);
+        for (String item : body.split(",")) {
+            int index = item.indexOf(':');
+            if (index < 0) {
+                continue;
+            }
+            try {
+                Queue<DeferredResult<Result>> queue = waiters.get(Long.valueOf(item.substring(0, index)));
+                if (queue == null) {
+                    continue;
+                }
+                Result result = Result.ok(Integer.valueOf(item.substring(index + 1)));
+                for (DeferredResult<Result> waiter : queue) {
+                    waiter.setResult(result);
+                }
+            } catch (RuntimeException e) {
+                log.error("订单状态消息格式错误：{}", item);
+            }
+        }
+    }
+}
@@ -0,0 +1,192 @@
+package com.hmdp.utils;
+
+import cn.hutool.core.lang.UUID;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.Collections;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import static com.hmdp.utils.RedisConstants.ID_WORKER_KEY;
+
+/**
+ * 本地生成id：时间戳 + 机器id + 序列号，生成id不访问redis
+ * 机器id启动时从redis租用，并定时续期；id布局与RedisIdWorker相同，高32位是秒级时间戳，
+ * 低32位最高位固定为1（与redis自增序列号区分，切换策略也不会重复），然后是9位机器id和22位序列号
+ * 超过租约时间没有续期成功时拒绝生成id，避免租约过期、机器id被其它节点租走后生成重复的id
+ */
+@Slf4j
+public class SnowflakeIdWorker {
+
+    /**
+     * 开始时间
+     */
+    private static final long BASIC_TIMESTAMP = 1640995200L;
+    private static final int WORKER_ID_BITS = 9;
+    private static final int SEQUENCE_BITS = 22;
+    public static final int MAX_WORKER_ID = (1 << WORKER_ID_BITS) - 1;
+    private static final long MAX_SEQUENCE = (1L << SEQUENCE_BITS) - 1;
+    private static final long LOCAL_FLAG = 1L << (WORKER_ID_BITS + SEQUENCE_BITS);
+
+    /**
+     * 续期lua脚本：机器id还是自己的才续期
+     */
+    private static final DefaultRedisScript<Long> RENEW_SCRIPT;
+    /**
+     * 释放lua脚本，与释放锁相同
+     */
+    private static final DefaultRedisScript<Long> RELEASE_SCRIPT;
+
+    static {
+        RENEW_SCRIPT = new DefaultRedisScript<>();
+        RENEW_SCRIPT.setLocation(new ClassPathResource("renew.lua"));
+        RENEW_SCRIPT.setResultType(Long.class);
+        RELEASE_SCRIPT = new DefaultRedisScript<>();
+        RELEASE_SCRIPT.setLocation(new ClassPathResource("unlock.lua"));
+        RELEASE_SCRIPT.setResultType(Long.class);
+    }
+
+    private final StringRedisTemplate redisTemplate;
+    /**
+     * 机器id租约时间
+     */
+    private final long leaseSeconds;
+    /**
+     * 允许时钟回拨的最大秒数，回拨在此范围内时继续使用上一秒的序列号，超过则拒绝生成id
+     */
+    private final long maxBackwardSeconds;
+    /**
+     * 租用机器id时的标识
+     */
+    private final String owner = UUID.randomUUID().toString(true);
+    private final ScheduledExecutorService heartbeatExecutor = Executors.newSingleThreadScheduledExecutor();
+
+    private volatile int workerId = -1;
+    /**
+     * 最近一次续期成功的时间（发出续期命令前的时间），租约在此之后leaseSeconds内有效
+     */
+    private volatile long leaseRenewedMillis;
+    private long lastSecond = -1;
+    private long sequence;
+
+    public SnowflakeIdWorker(StringRedisTemplate redisTemplate, long leaseSeconds, long maxBackwardSeconds) {
+        this.redisTemplate = redisTemplate;
+        this.leaseSeconds = leaseSeconds;
+        this.maxBackwardSeconds = maxBackwardSeconds;
+    }
+
+    /**
+     * 租用机器id并开始心跳续期
+     */
+    public void start() {
+        long begin = System.currentTimeMillis();
+        workerId = leaseWorkerId();
+        leaseRenewedMillis = begin;
+        long period = Math.max(1, leaseSeconds / 3);
+        heartbeatExecutor.scheduleAtFixedRate(this::heartbeat, period, period, TimeUnit.SECONDS);
+        log.info("租用机器id：{}", workerId);
+    }
+
+    /**
+     * 停止心跳并释放机器id
+     */
+    public void stop() {
+        heartbeatExecutor.shutdownNow();
+        try {
+            redisTemplate.execute(RELEASE_SCRIPT, Collections.singletonList(ID_WORKER_KEY + workerId), owner);
+        } catch (Exception e) {
+            log.warn("释放机器id失败：{}", e.getMessage());
+        }
+    }
+
+    public synchronized long nextId() {
+        long leaseAge = System.currentTimeMillis() - leaseRenewedMillis;
+        if (leaseAge >= TimeUnit.SECONDS.toMillis(leaseSeconds)) {
+            throw new IllegalStateException("机器id" + workerId + "已" + leaseAge + "ms未续期，租约可能已过期，拒绝生成id");
+        }
+        long now = nowSecond();
+        if (now < lastSecond) {
+            // 时钟回拨
+            if (lastSecond - now > maxBackwardSeconds) {
+                throw new IllegalStateException("时钟回拨" + (lastSecond - now) + "秒，拒绝生成id");
+            }
+            now = lastSecond;
+        }
+        if (now == lastSecond) {
+            if (sequence == MAX_SEQUENCE) {
+                // 这一秒的序列号用完了，等到下一秒
+                now = waitNextSecond(lastSecond);
+                sequence = 0;
+            } else {
+                sequence++;
+            }
+        } else {
+            sequence = 0;
+        }
+        lastSecond = now;
+        return now << 32 | LOCAL_FLAG | (long) workerId << SEQUENCE_BITS | sequence;
+    }
+
+    private long waitNextSecond(long second) {
+        long now;
+        do {
+            try {
+                Thread.sleep(1);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException("等待下一秒时被中断", e);
+            }
+            now = nowSecond();
+        } while (now <= second);
+        return now;
+    }
+
+    /**
+     * 与RedisIdWorker使用相同的时间基准，切换策略前后的id保持递增
+     */
+    private static long nowSecond() {
+        return LocalDateTime.now().toEpochSecond(ZoneOffset.UTC) - BASIC_TIMESTAMP;
+    }
+
+    /**
+     * 从随机位置开始依次尝试租用机器id SET id:worker:n owner NX EX leaseSeconds
+     */
+    private int leaseWorkerId() {
+        int start = ThreadLocalRandom.current().nextInt(MAX_WORKER_ID + 1);
+        for (int i = 0; i <= MAX_WORKER_ID; i++) {
+            int id = (start + i) & MAX_WORKER_ID;
+            Boolean success = redisTemplate.opsForValue()
+                    .setIfAbsent(ID_WORKER_KEY + id, owner, leaseSeconds, TimeUnit.SECONDS);
+            if (Boolean.TRUE.equals(success)) {
+                return id;
+            }
+        }
+        throw new IllegalStateException("没有可用的机器id");
+    }
+
+    /**
+     * 心跳续期：redis暂时不可用时在租约时间内继续使用当前机器id，确认租约已失效时重新租用
+     */
+    private void heartbeat() {
+        long begin = System.currentTimeMillis();
+        try {
+            Long renewed = redisTemplate.execute(RENEW_SCRIPT, Collections.singletonList(ID_WORKER_KEY + workerId),
+                    owner, String.valueOf(leaseSeconds));
+            if (renewed != null && renewed == 0) {
+                int old = workerId;
+                workerId = leaseWorkerId();
+                log.warn("机器id{}的租约已失效，重新租用机器id：{}", old, workerId);
+            }
+            leaseRenewedMillis = begin;
+        } catch (Exception e) {
+            log.warn("机器id续期失败：{}", e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,10 @@
+-- 续期：比较key中的标识与自己的标识是否一致
+if (redis.call('GET', KEYS[1]) == ARGV[1]) then
+    -- 一致则重置有效期 （expire key seconds） 成功返回1
+    return redis.call('EXPIRE', KEYS[1], ARGV[2])
+end
+-- key已过期：还没有被别人占用时重新占用
+if (redis.call('SET', KEYS[1], ARGV[1], 'NX', 'EX', ARGV[2])) then
+    return 1
+end
+return 0
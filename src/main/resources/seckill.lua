@@ -0,0 +1,41 @@
+-- 秒杀资格判断：时间判断、库存判断、一人一单判断、扣减库存、记录下单用户、发送订单消息，整个过程在redis中原子执行
+-- KEYS[1]：秒杀库存key（seckill:stock:voucherId，hash结构，field：stock、begin、end）
+-- KEYS[2]：已下单用户集合key（seckill:order:voucherId）
+-- KEYS[3]：订单消息队列key（stream.orders）
+-- ARGV[1]：用户id   ARGV[2]：优惠券id   ARGV[3]：当前时间戳（毫秒）   ARGV[4]：订单id   ARGV[5]：消息队列允许积压的最大订单数
+-- 返回值：0-有购买资格  1-库存不足  2-重复下单  3-秒杀未开始  4-秒杀已结束  5-订单积压过多  7-秒杀券未加载到redis
+
+local seckill = redis.call('HMGET', KEYS[1], 'stock', 'begin', 'end')
+local stock = tonumber(seckill[1])
+local begin = tonumber(seckill[2])
+local finish = tonumber(seckill[3])
+-- 库存、开始时间、结束时间任一不存在时视为未加载（例如redis数据丢失），不能当作售罄
+if (stock == nil or begin == nil or finish == nil) then
+    return 7
+end
+local now = tonumber(ARGV[3])
+if (now < begin) then
+    return 3
+end
+if (now > finish) then
+    return 4
+end
+-- 判断库存是否充足
+if (stock <= 0) then
+    return 1
+end
+-- 判断用户是否下过单 (sismember orderKey userId)
+if (redis.call('SISMEMBER', KEYS[2], ARGV[1]) == 1) then
+    return 2
+end
+-- 消费者处理完的消息会被删除，队列长度即为积压的订单数，积压过多时拒绝下单（背压）
+if (redis.call('XLEN', KEYS[3]) >= tonumber(ARGV[5])) then
+    return 5
+end
+-- 扣减库存 (hincrby stockKey stock -1)
+redis.call('HINCRBY', KEYS[1], 'stock', -1)
+-- 记录下单用户 (sadd orderKey userId)
+redis.call('SADD', KEYS[2], ARGV[1])
+-- 发送订单消息到队列 (xadd stream.orders * k1 v1 k2 v2 ...)
+redis.call('XADD', KEYS[3], '*', 'userId', ARGV[1], 'voucherId', ARGV[2], 'id', ARGV[4])
+return 0
@@ -0,0 +1,16 @@
+-- 全局预算：所有节点共享的放行上限和已放行数，已放行数未达到上限时加1
+-- KEYS[1]：预算key（seckill:budget:voucherId），hash：limit-上限 used-已放行数
+-- ARGV[1]：上限不存在时（开启全局预算之前创建的秒杀券）写入的上限，只有第一次写入生效
+-- 返回值：1-放行  0-预算已用完
+
+local limit = tonumber(redis.call('HGET', KEYS[1], 'limit'))
+if (limit == nil) then
+    limit = tonumber(ARGV[1])
+    redis.call('HSET', KEYS[1], 'limit', ARGV[1])
+end
+local used = tonumber(redis.call('HGET', KEYS[1], 'used'))
+if (used ~= nil and used >= limit) then
+    return 0
+end
+redis.call('HINCRBY', KEYS[1], 'used', 1)
+return 1
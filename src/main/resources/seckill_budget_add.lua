@@ -0,0 +1,9 @@
+-- 补充库存后增加全局预算的上限：上限还不存在时不增加，第一次放行时按补充后的库存写入
+-- KEYS[1]：预算key（seckill:budget:voucherId）
+-- ARGV[1]：增加的上限
+-- 返回值：增加后的上限，上限不存在时返回-1
+
+if (redis.call('HEXISTS', KEYS[1], 'limit') == 0) then
+    return -1
+end
+return redis.call('HINCRBY', KEYS[1], 'limit', ARGV[1])
@@ -0,0 +1,33 @@
+-- 分片库存的秒杀资格判断：在用户所属的分片（按用户id哈希）上原子执行，分片的key使用相同的hash tag，保证集群下位于同一个slot
+-- KEYS[1]：分片库存key（seckill:stock:{voucherId:shard}，hash结构，field：stock、begin、end）
+-- KEYS[2]：分片已下单用户集合key（seckill:order:{voucherId:shard}），用户总是记录在自己所属的分片上
+-- ARGV[1]：用户id   ARGV[2]：当前时间戳（毫秒）
+-- 返回值：0-有购买资格  1-库存不足  2-重复下单  3-秒杀未开始  4-秒杀已结束  6-本分片库存不足，已占用下单资格，需要从其它分片扣减库存  7-秒杀券未加载到redis
+
+local seckill = redis.call('HMGET', KEYS[1], 'stock', 'begin', 'end')
+local stock = tonumber(seckill[1])
+local begin = tonumber(seckill[2])
+local finish = tonumber(seckill[3])
+-- 库存、开始时间、结束时间任一不存在时视为未加载（例如redis数据丢失），不能当作售罄
+if (stock == nil or begin == nil or finish == nil) then
+    return 7
+end
+local now = tonumber(ARGV[2])
+if (now < begin) then
+    return 3
+end
+if (now > finish) then
+    return 4
+end
+-- 判断用户是否下过单 (sismember orderKey userId)
+if (redis.call('SISMEMBER', KEYS[2], ARGV[1]) == 1) then
+    return 2
+end
+-- 记录下单用户 (sadd orderKey userId)
+redis.call('SADD', KEYS[2], ARGV[1])
+if (stock <= 0) then
+    return 6
+end
+-- 扣减库存 (hincrby stockKey stock -1)
+redis.call('HINCRBY', KEYS[1], 'stock', -1)
+return 0
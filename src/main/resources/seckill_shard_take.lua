@@ -0,0 +1,10 @@
+-- 从其它分片扣减一个库存
+-- KEYS[1]：分片库存key（seckill:stock:{voucherId:shard}）
+-- 返回值：0-扣减成功  1-库存不足
+
+local stock = tonumber(redis.call('HGET', KEYS[1], 'stock'))
+if (stock == nil or stock <= 0) then
+    return 1
+end
+redis.call('HINCRBY', KEYS[1], 'stock', -1)
+return 0
@@ -0,0 +1,9 @@
+-- 补充秒杀库存：库存hash已完整加载（有结束时间）时才增加库存，否则不创建只有库存字段的hash
+-- KEYS[1]：库存key（seckill:stock:voucherId 或 分片库存key seckill:stock:{voucherId:shard}）
+-- ARGV[1]：补充的库存数
+-- 返回值：补充后的库存，未加载时返回-1
+
+if (redis.call('HEXISTS', KEYS[1], 'end') == 0) then
+    return -1
+end
+return redis.call('HINCRBY', KEYS[1], 'stock', ARGV[1])
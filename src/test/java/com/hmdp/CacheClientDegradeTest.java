@@ -0,0 +1,210 @@
+package com.hmdp;
+
+import com.hmdp.entity.Shop;
+import com.hmdp.utils.BinaryCacheCodec;
+import com.hmdp.utils.CacheClient;
+import com.hmdp.utils.CacheCompressor;
+import com.hmdp.utils.CacheMetrics;
+import com.hmdp.utils.CacheRefresher;
+import com.hmdp.utils.HotKeyDetector;
+import com.hmdp.utils.JsonCacheCodec;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.actuate.autoconfigure.metrics.MetricsAutoConfiguration;
+import org.springframework.boot.actuate.autoconfigure.metrics.export.simple.SimpleMetricsExportAutoConfiguration;
+import org.springframework.boot.autoconfigure.ImportAutoConfiguration;
+import org.springframework.boot.autoconfigure.data.redis.RedisAutoConfiguration;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.context.TestConfiguration;
+import org.springframework.context.annotation.Bean;
+import org.springframework.data.redis.RedisConnectionFailureException;
+import org.springframework.data.redis.connection.RedisConnectionFactory;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * 缓存雪崩防护测试，连接本地redis-server：redis-server --port 6379
+ * 只启动CacheClient及其依赖，不需要mysql，数据库查询由测试传入；通过可以模拟故障的StringRedisTemplate注入redis不可用
+ */
+@SpringBootTest(classes = {
+        CacheClient.class,
+        CacheRefresher.class,
+        HotKeyDetector.class,
+        CacheMetrics.class,
+        CacheCompressor.class,
+        JsonCacheCodec.class,
+        BinaryCacheCodec.class,
+        CacheClientDegradeTest.FaultInjectionConfig.class
+}, properties = {
+        "spring.redis.host=127.0.0.1",
+        "spring.redis.port=6379",
+        "spring.redis.password=",
+        "hmdp.cache.local.enabled=false",
+        "hmdp.cache.hot-key.enabled=false",
+        "hmdp.cache.ttl-jitter-ratio=0.5",
+        "hmdp.cache.db.max-concurrency=2",
+        "hmdp.cache.db.acquire-timeout-ms=0"
+})
+@ImportAutoConfiguration({
+        RedisAutoConfiguration.class,
+        MetricsAutoConfiguration.class,
+        SimpleMetricsExportAutoConfiguration.class
+})
+public class CacheClientDegradeTest {
+
+    private static final String KEY_PREFIX = "cache:degrade-test:";
+
+    @Autowired
+    private CacheClient cacheClient;
+
+    @Autowired
+    private StringRedisTemplate redisTemplate;
+
+    @AfterEach
+    void recover() {
+        ((FaultyRedisTemplate) redisTemplate).down = false;
+        Set<String> keys = redisTemplate.keys(KEY_PREFIX + "*");
+        if (keys != null && !keys.isEmpty()) {
+            redisTemplate.delete(keys);
+        }
+    }
+
+    /**
+     * 同时写入的key有效期不同
+     */
+    @Test
+    void testTtlJitter() {
+        Set<Long> ttls = new HashSet<>();
+        for (int i = 0; i < 20; i++) {
+            cacheClient.set(KEY_PREFIX + i, new Shop().setId((long) i), 100, TimeUnit.SECONDS);
+            Long ttl = redisTemplate.getExpire(KEY_PREFIX + i, TimeUnit.SECONDS);
+            assertNotNull(ttl);
+            assertTrue(ttl >= 99 && ttl <= 150, "ttl = " + ttl);
+            ttls.add(ttl);
+        }
+        assertTrue(ttls.size() > 1);
+    }
+
+    /**
+     * 同时查询数据库的请求数不超过2，其余请求没有旧数据时快速失败
+     */
+    @Test
+    void testDbBulkhead() throws InterruptedException {
+        CountDownLatch release = new CountDownLatch(1);
+        AtomicInteger running = new AtomicInteger();
+        AtomicInteger maxRunning = new AtomicInteger();
+        ExecutorService es = Executors.newFixedThreadPool(6);
+        List<Future<Shop>> futures = new ArrayList<>();
+        for (long i = 0; i < 6; i++) {
+            // 与其它测试使用不同的id，没有旧数据
+            long id = 100 + i;
+            futures.add(es.submit(() -> cacheClient.queryWithPassThrough(KEY_PREFIX, id, Shop.class, shopId -> {
+                maxRunning.accumulateAndGet(running.incrementAndGet(), Math::max);
+                try {
+                    release.await(5, TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                running.decrementAndGet();
+                return new Shop().setId(shopId);
+            }, 1L, TimeUnit.MINUTES)));
+        }
+        Thread.sleep(500);
+        release.countDown();
+        int loaded = 0;
+        int rejected = 0;
+        for (Future<Shop> future : futures) {
+            try {
+                future.get();
+                loaded++;
+            } catch (ExecutionException e) {
+                assertEquals("数据库繁忙，请稍后再试", e.getCause().getMessage());
+                rejected++;
+            }
+        }
+        es.shutdown();
+        assertEquals(2, maxRunning.get());
+        assertEquals(2, loaded);
+        assertEquals(4, rejected);
+    }
+
+    /**
+     * redis不可用时返回旧数据，不查询数据库
+     */
+    @Test
+    void testRedisDownServesStale() {
+        AtomicInteger loads = new AtomicInteger();
+        Shop shop = cacheClient.queryWithPassThrough(KEY_PREFIX, 1L, Shop.class, id -> {
+            loads.incrementAndGet();
+            return new Shop().setId(id).setName("旧数据");
+        }, 1L, TimeUnit.MINUTES);
+        assertEquals("旧数据", shop.getName());
+
+        ((FaultyRedisTemplate) redisTemplate).down = true;
+        shop = cacheClient.queryWithPassThrough(KEY_PREFIX, 1L, Shop.class, id -> {
+            loads.incrementAndGet();
+            return new Shop().setId(id).setName("新数据");
+        }, 1L, TimeUnit.MINUTES);
+        assertEquals("旧数据", shop.getName());
+        assertEquals(1, loads.get());
+    }
+
+    /**
+     * redis不可用且没有旧数据时直接查询数据库
+     */
+    @Test
+    void testRedisDownWithoutStaleQueriesDb() {
+        ((FaultyRedisTemplate) redisTemplate).down = true;
+        AtomicInteger loads = new AtomicInteger();
+        Shop shop = cacheClient.queryWithLogicExpire(KEY_PREFIX, 2L, Shop.class, id -> {
+            loads.incrementAndGet();
+            return new Shop().setId(id);
+        }, 1L, TimeUnit.MINUTES);
+        assertEquals(2L, shop.getId());
+        assertEquals(1, loads.get());
+    }
+
+    @TestConfiguration
+    static class FaultInjectionConfig {
+        @Bean
+        public StringRedisTemplate stringRedisTemplate(RedisConnectionFactory connectionFactory) {
+            return new FaultyRedisTemplate(connectionFactory);
+        }
+    }
+
+    /**
+     * down为true时所有redis命令抛出连接失败异常
+     */
+    static class FaultyRedisTemplate extends StringRedisTemplate {
+        volatile boolean down;
+
+        FaultyRedisTemplate(RedisConnectionFactory connectionFactory) {
+            super(connectionFactory);
+        }
+
+        @Override
+        public <T> T execute(RedisCallback<T> action, boolean exposeConnection, boolean pipeline) {
+            if (down) {
+                throw new RedisConnectionFailureException("故障注入：redis不可用");
+            }
+            return super.execute(action, exposeConnection, pipeline);
+        }
+    }
+}
@@ -0,0 +1,204 @@
+package com.hmdp;
+
+import com.hmdp.entity.Shop;
+import com.hmdp.utils.BinaryCacheCodec;
+import com.hmdp.utils.CacheClient;
+import com.hmdp.utils.CacheCompressor;
+import com.hmdp.utils.CacheMetrics;
+import com.hmdp.utils.CacheRefresher;
+import com.hmdp.utils.HotKeyDetector;
+import com.hmdp.utils.JsonCacheCodec;
+import lombok.extern.slf4j.Slf4j;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.actuate.autoconfigure.metrics.MetricsAutoConfiguration;
+import org.springframework.boot.actuate.autoconfigure.metrics.export.simple.SimpleMetricsExportAutoConfiguration;
+import org.springframework.boot.autoconfigure.ImportAutoConfiguration;
+import org.springframework.boot.autoconfigure.data.redis.RedisAutoConfiguration;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.data.redis.core.StringRedisTemplate;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+/**
+ * 四种查询策略的延迟对比，连接本地redis-server：redis-server --port 6379
+ * 只启动CacheClient及其依赖，不需要mysql；数据库查询用固定延迟模拟，关闭本地缓存，每次命中都访问redis
+ * <p>
+ * 结果输出到日志，各策略的预期表现：
+ * 命中：四种策略都是一次redis读取，延迟相同；
+ * key不存在：passThrough、mutex、hybrid都同步查询一次数据库（延迟 = redis读取 + 数据库查询 + 写入），
+ * logicExpire直接返回null（数据查询不到）；
+ * 并发访问同一个不存在的key：mutex、hybrid只查询一次数据库，passThrough每个请求都查询
+ */
+@Slf4j
+@SpringBootTest(classes = {
+        CacheClient.class,
+        CacheRefresher.class,
+        HotKeyDetector.class,
+        CacheMetrics.class,
+        CacheCompressor.class,
+        JsonCacheCodec.class,
+        BinaryCacheCodec.class
+}, properties = {
+        "spring.redis.host=127.0.0.1",
+        "spring.redis.port=6379",
+        "spring.redis.password=",
+        "hmdp.cache.local.enabled=false",
+        "hmdp.cache.hot-key.enabled=false"
+})
+@ImportAutoConfiguration({
+        RedisAutoConfiguration.class,
+        MetricsAutoConfiguration.class,
+        SimpleMetricsExportAutoConfiguration.class
+})
+public class CacheStrategyBenchmarkTest {
+
+    private static final String KEY_PREFIX = "cache:benchmark-test:";
+
+    /**
+     * 模拟的数据库查询耗时
+     */
+    private static final long DB_MILLIS = 20;
+
+    private static final int HIT_ROUNDS = 2000;
+    private static final int MISS_KEYS = 50;
+    private static final int CONCURRENCY = 50;
+
+    @Autowired
+    private CacheClient cacheClient;
+
+    @Autowired
+    private StringRedisTemplate redisTemplate;
+
+    private final ExecutorService es = Executors.newFixedThreadPool(CONCURRENCY);
+
+    @AfterEach
+    void clean() {
+        Set<String> keys = redisTemplate.keys(KEY_PREFIX + "*");
+        if (keys != null && !keys.isEmpty()) {
+            redisTemplate.delete(keys);
+        }
+    }
+
+    /**
+     * 一种查询策略
+     */
+    private interface Strategy {
+        Shop query(String keyPrefix, Long id, Function<Long, Shop> dbFallback);
+    }
+
+    private Map<String, Strategy> strategies() {
+        Map<String, Strategy> strategies = new LinkedHashMap<>();
+        strategies.put("passThrough", (prefix, id, db) ->
+                cacheClient.queryWithPassThrough(prefix, id, Shop.class, db, 10, TimeUnit.MINUTES));
+        strategies.put("mutex", (prefix, id, db) ->
+                cacheClient.queryWithMutex(prefix, id, Shop.class, db, 10, TimeUnit.MINUTES));
+        strategies.put("logicExpire", (prefix, id, db) ->
+                cacheClient.queryWithLogicExpire(prefix, id, Shop.class, db, 10, TimeUnit.MINUTES));
+        strategies.put("hybrid", (prefix, id, db) ->
+                cacheClient.queryWithLogicExpireOrLoad(prefix, id, Shop.class, db, 10, TimeUnit.MINUTES));
+        return strategies;
+    }
+
+    @Test
+    void benchmark() throws InterruptedException {
+        for (Map.Entry<String, Strategy> entry : strategies().entrySet()) {
+            String name = entry.getKey();
+            Strategy strategy = entry.getValue();
+            String keyPrefix = KEY_PREFIX + name + ":";
+            AtomicInteger loads = new AtomicInteger();
+            Function<Long, Shop> db = id -> {
+                loads.incrementAndGet();
+                sleep(DB_MILLIS);
+                return new Shop().setId(id);
+            };
+
+            // key不存在：每个key第一次访问
+            long[] miss = new long[MISS_KEYS];
+            int found = 0;
+            for (int i = 0; i < MISS_KEYS; i++) {
+                long begin = System.nanoTime();
+                Shop shop = strategy.query(keyPrefix, (long) i, db);
+                miss[i] = System.nanoTime() - begin;
+                if (shop != null) {
+                    found++;
+                }
+            }
+
+            // 命中：logicExpire需要预热，其它策略已经在上一步写入
+            if ("logicExpire".equals(name)) {
+                for (long i = 0; i < MISS_KEYS; i++) {
+                    cacheClient.setWithLogicExpire(keyPrefix + i, new Shop().setId(i), 10, TimeUnit.MINUTES);
+                }
+            }
+            long[] hit = new long[HIT_ROUNDS];
+            for (int i = 0; i < HIT_ROUNDS; i++) {
+                long begin = System.nanoTime();
+                assertNotNull(strategy.query(keyPrefix, (long) (i % MISS_KEYS), db));
+                hit[i] = System.nanoTime() - begin;
+            }
+
+            // 并发访问同一个不存在的key
+            long concurrentId = MISS_KEYS + 1;
+            int loadsBefore = loads.get();
+            CountDownLatch latch = new CountDownLatch(CONCURRENCY);
+            long begin = System.nanoTime();
+            for (int i = 0; i < CONCURRENCY; i++) {
+                es.submit(() -> {
+                    try {
+                        strategy.query(keyPrefix, concurrentId, db);
+                    } finally {
+                        latch.countDown();
+                    }
+                });
+            }
+            latch.await();
+            long concurrentMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - begin);
+            int concurrentLoads = loads.get() - loadsBefore;
+
+            log.info("{}：命中 p50 = {}us，p99 = {}us；首次访问 p50 = {}us，p99 = {}us，查到 {}/{}；并发{}个请求访问同一个不存在的key：查询数据库{}次，耗时{}ms",
+                    name, percentile(hit, 50), percentile(hit, 99), percentile(miss, 50), percentile(miss, 99),
+                    found, MISS_KEYS, CONCURRENCY, concurrentLoads, concurrentMillis);
+
+            if ("logicExpire".equals(name)) {
+                // 未预热的key查询不到，也不查询数据库
+                assertEquals(0, found);
+                assertNull(strategy.query(keyPrefix, MISS_KEYS + 2L, db));
+            } else {
+                assertEquals(MISS_KEYS, found);
+            }
+            if ("mutex".equals(name) || "hybrid".equals(name)) {
+                assertEquals(1, concurrentLoads);
+            }
+        }
+    }
+
+    private static long percentile(long[] nanos, int percentile) {
+        long[] sorted = nanos.clone();
+        Arrays.sort(sorted);
+        int index = (int) Math.ceil(percentile / 100.0 * sorted.length) - 1;
+        return TimeUnit.NANOSECONDS.toMicros(sorted[Math.max(0, index)]);
+    }
+
+    private static void sleep(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -1,15 +1,32 @@
 package com.hmdp;
 
+import cn.hutool.core.util.StrUtil;
+import com.hmdp.entity.Shop;
+import com.hmdp.entity.Voucher;
+import com.hmdp.service.IVoucherService;
 import com.hmdp.service.impl.ShopServiceImpl;
+import com.hmdp.utils.CacheClient;
 import com.hmdp.utils.RedisIdWorker;
 import lombok.extern.slf4j.Slf4j;
 import org.junit.jupiter.api.Test;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
 
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static com.hmdp.utils.RedisConstants.CACHE_VOUCHER_SHOP_KEY;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
 
 @Slf4j
 @SpringBootTest
@@ -21,15 +38,25 @@ class HmDianPingApplicationTests {
     @Autowired
     private RedisIdWorker redisIdWorker;
 
+    @Autowired
+    private CacheClient cacheClient;
+
+    @Autowired
+    private StringRedisTemplate redisTemplate;
+
+    @Autowired
+    private IVoucherService voucherService;
+
     private ExecutorService es = Executors.newFixedThreadPool(100);
 
     @Test
     void testIdWorker() throws InterruptedException {
         CountDownLatch latch = new CountDownLatch(50);
+        Set<Long> ids = ConcurrentHashMap.newKeySet();
         Runnable task = () -> {
             for (int i = 0; i < 100; i++) {
                 long id = redisIdWorker.nextId("order");
-                System.out.println("id = " + id);
+                ids.add(id);
             }
             latch.countDown();
         };
@@ -41,6 +68,8 @@ class HmDianPingApplicationTests {
         latch.await();
         long end = System.currentTimeMillis();
         System.out.println("end - begin = " + (end - begin));
+        // id不能重复
+        assertEquals(5000, ids.size());
     }
 
     @Test
@@ -48,4 +77,63 @@ class HmDianPingApplicationTests {
         // 为测试记，过期时间10秒
         shopService.saveShop2Redis(1L, 10L);
     }
+
+    @Test
+    void testQueryWithMutexSingleFlight() throws InterruptedException {
+        String keyPrefix = "cache:test:";
+        redisTemplate.delete(keyPrefix + 1);
+        AtomicInteger loads = new AtomicInteger();
+        CountDownLatch latch = new CountDownLatch(50);
+        for (int i = 0; i < 50; i++) {
+            es.submit(() -> {
+                try {
+                    cacheClient.queryWithMutex(keyPrefix, 1L, Shop.class, id -> {
+                        loads.incrementAndGet();
+                        sleep(200);
+                        return new Shop().setId(id);
+                    }, 1L, TimeUnit.MINUTES);
+                } finally {
+                    latch.countDown();
+                }
+            });
+        }
+        latch.await();
+        redisTemplate.delete(keyPrefix + 1);
+        // 并发未命中只查询一次数据库
+        assertEquals(1, loads.get());
+    }
+
+    @Test
+    void testCompressLargeValue() {
+        String key = "cache:test:compress:";
+        Shop shop = new Shop().setId(1L).setImages(StrUtil.repeat("https://qcloud.dpfile.com/pc/abcdefg.jpg,", 100));
+        cacheClient.set(key + 1, shop, 1L, TimeUnit.MINUTES);
+        Long size = redisTemplate.execute((RedisCallback<Long>) connection ->
+                connection.strLen((key + 1).getBytes(StandardCharsets.UTF_8)));
+        Shop cached = cacheClient.queryWithPassThrough(key, 1L, Shop.class, id -> null, 1L, TimeUnit.MINUTES);
+        redisTemplate.delete(key + 1);
+        // 超过阈值的数据压缩后保存，读取时解压
+        assertTrue(size != null && size < shop.getImages().length(), "size = " + size);
+        assertEquals(shop.getImages(), cached.getImages());
+    }
+
+    @Test
+    void testCachedAnnotation() {
+        redisTemplate.delete(CACHE_VOUCHER_SHOP_KEY + 1);
+        List<Voucher> vouchers = voucherService.listVoucherOfShop(1L);
+        // 第一次查询后写入缓存，再次查询从缓存读取，泛型元素类型不变
+        assertTrue(Boolean.TRUE.equals(redisTemplate.hasKey(CACHE_VOUCHER_SHOP_KEY + 1)));
+        List<Voucher> cached = voucherService.listVoucherOfShop(1L);
+        assertEquals(vouchers.size(), cached.size());
+        cached.forEach(voucher -> assertEquals(Voucher.class, voucher.getClass()));
+        redisTemplate.delete(CACHE_VOUCHER_SHOP_KEY + 1);
+    }
+
+    private static void sleep(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
 }
@@ -0,0 +1,167 @@
+package com.hmdp;
+
+import com.hmdp.service.IVoucherOrderService;
+import com.hmdp.utils.SeckillOrderStatus;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.data.domain.Range;
+import org.springframework.data.redis.connection.stream.Consumer;
+import org.springframework.data.redis.connection.stream.MapRecord;
+import org.springframework.data.redis.connection.stream.ReadOffset;
+import org.springframework.data.redis.connection.stream.RecordId;
+import org.springframework.data.redis.connection.stream.StreamOffset;
+import org.springframework.data.redis.connection.stream.StreamReadOptions;
+import org.springframework.data.redis.connection.stream.StreamRecords;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.test.util.AopTestUtils;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static com.hmdp.utils.RedisConstants.SECKILL_ORDER_DEAD_STREAM_KEY;
+import static com.hmdp.utils.RedisConstants.SECKILL_ORDER_KEY;
+import static com.hmdp.utils.RedisConstants.SECKILL_ORDER_STATUS_KEY;
+import static com.hmdp.utils.RedisConstants.SECKILL_ORDER_STREAM_KEY;
+import static com.hmdp.utils.RedisConstants.SECKILL_STOCK_KEY;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * 订单消息队列测试，需要本地redis-server（redis-server --port 6379）和应用配置的mysql（处理订单时写入数据库）
+ * 使用单独的消费者组，并且不启动本实例的下单线程和认领任务，由测试直接执行认领，不与其它消费者竞争消息
+ */
+@SpringBootTest(properties = {
+        "spring.redis.host=127.0.0.1",
+        "spring.redis.port=6379",
+        "spring.redis.password=",
+        "hmdp.seckill.order-stream.group=" + VoucherOrderStreamTest.GROUP,
+        "hmdp.seckill.order-stream.workers=0",
+        "hmdp.seckill.order-stream.claim-idle-seconds=1",
+        "hmdp.seckill.order-stream.max-deliveries=3"
+})
+public class VoucherOrderStreamTest {
+
+    static final String GROUP = "test-claim";
+
+    /**
+     * 测试用的秒杀券，数据库中不存在
+     */
+    private static final long POISON_VOUCHER_ID = -2L;
+
+    @Autowired
+    private StringRedisTemplate redisTemplate;
+
+    @Autowired
+    private IVoucherOrderService voucherOrderService;
+
+    @Autowired
+    private SeckillOrderStatus seckillOrderStatus;
+
+    @BeforeEach
+    void createGroup() {
+        // 启动时创建的消费者组从0开始读取，重新创建为只读取之后的新消息
+        redisTemplate.opsForStream().destroyGroup(SECKILL_ORDER_STREAM_KEY, GROUP);
+        redisTemplate.opsForStream().createGroup(SECKILL_ORDER_STREAM_KEY, ReadOffset.latest(), GROUP);
+    }
+
+    @AfterEach
+    void destroyGroup() {
+        redisTemplate.opsForStream().destroyGroup(SECKILL_ORDER_STREAM_KEY, GROUP);
+        redisTemplate.delete(Arrays.asList(SECKILL_STOCK_KEY + POISON_VOUCHER_ID, SECKILL_ORDER_KEY + POISON_VOUCHER_ID,
+                SECKILL_ORDER_STATUS_KEY + POISON_VOUCHER_ID));
+    }
+
+    /**
+     * 模拟消费者读取消息后宕机：消息留在pending-list中，超时后被认领、处理并确认
+     */
+    @Test
+    void testClaimIdleOrders() throws InterruptedException {
+        Map<String, String> order = new HashMap<>();
+        order.put("userId", "1");
+        order.put("voucherId", "-1");
+        order.put("id", "1");
+        RecordId recordId = redisTemplate.opsForStream().add(StreamRecords.newRecord().in(SECKILL_ORDER_STREAM_KEY).ofMap(order));
+        assertNotNull(recordId);
+
+        // 宕机的消费者：只读取，不确认
+        List<MapRecord<String, Object, Object>> list = redisTemplate.opsForStream().read(
+                Consumer.from(GROUP, "dead-consumer"),
+                StreamReadOptions.empty().count(100),
+                StreamOffset.create(SECKILL_ORDER_STREAM_KEY, ReadOffset.lastConsumed())
+        );
+        assertNotNull(list);
+        assertEquals(1, list.size());
+        assertEquals(recordId, list.get(0).getId());
+        assertEquals(1, redisTemplate.opsForStream().pending(SECKILL_ORDER_STREAM_KEY,
+                Consumer.from(GROUP, "dead-consumer")).size());
+
+        // 超过认领时间后执行一次认领任务
+        Thread.sleep(1500);
+        Object target = AopTestUtils.getUltimateTargetObject(voucherOrderService);
+        ReflectionTestUtils.invokeMethod(target, "claimIdleOrders");
+
+        // 消息已被认领、处理（优惠券不存在，下单失败），并确认、删除
+        assertEquals(0, redisTemplate.opsForStream().pending(SECKILL_ORDER_STREAM_KEY, GROUP).getTotalPendingMessages());
+        assertTrue(redisTemplate.opsForStream()
+                .range(SECKILL_ORDER_STREAM_KEY, Range.closed(recordId.getValue(), recordId.getValue())).isEmpty());
+    }
+
+    /**
+     * 投递次数达到上限的消息：归还redis中的库存和下单资格，写入下单失败状态，再转入死信队列
+     */
+    @Test
+    void testPoisonOrderRestoresStock() throws InterruptedException {
+        // lua脚本已经扣减了库存，并记录了下单用户
+        Map<String, String> stock = new HashMap<>();
+        stock.put("stock", "0");
+        stock.put("begin", "0");
+        stock.put("end", String.valueOf(Long.MAX_VALUE));
+        redisTemplate.opsForHash().putAll(SECKILL_STOCK_KEY + POISON_VOUCHER_ID, stock);
+        redisTemplate.opsForSet().add(SECKILL_ORDER_KEY + POISON_VOUCHER_ID, "1");
+
+        Map<String, String> order = new HashMap<>();
+        order.put("userId", "1");
+        order.put("voucherId", String.valueOf(POISON_VOUCHER_ID));
+        // 订单id与秒杀券id相同，方便清理订单状态
+        order.put("id", String.valueOf(POISON_VOUCHER_ID));
+        RecordId recordId = redisTemplate.opsForStream().add(StreamRecords.newRecord().in(SECKILL_ORDER_STREAM_KEY).ofMap(order));
+        assertNotNull(recordId);
+
+        // 投递3次都没有确认：第一次读取新消息，之后两次重新读取pending-list
+        Consumer dead = Consumer.from(GROUP, "dead-consumer");
+        redisTemplate.opsForStream().read(dead, StreamReadOptions.empty().count(100),
+                StreamOffset.create(SECKILL_ORDER_STREAM_KEY, ReadOffset.lastConsumed()));
+        for (int i = 0; i < 2; i++) {
+            redisTemplate.opsForStream().read(dead, StreamReadOptions.empty().count(100),
+                    StreamOffset.create(SECKILL_ORDER_STREAM_KEY, ReadOffset.from("0")));
+        }
+
+        // 认领（JUSTID不增加投递次数）后转入死信队列
+        Thread.sleep(1500);
+        Object target = AopTestUtils.getUltimateTargetObject(voucherOrderService);
+        ReflectionTestUtils.invokeMethod(target, "claimIdleOrders");
+
+        assertEquals(0, redisTemplate.opsForStream().pending(SECKILL_ORDER_STREAM_KEY, GROUP).getTotalPendingMessages());
+        assertEquals("1", redisTemplate.opsForHash().get(SECKILL_STOCK_KEY + POISON_VOUCHER_ID, "stock"));
+        assertFalse(Boolean.TRUE.equals(redisTemplate.opsForSet().isMember(SECKILL_ORDER_KEY + POISON_VOUCHER_ID, "1")));
+        assertEquals(SeckillOrderStatus.FAILED, seckillOrderStatus.get(POISON_VOUCHER_ID, 1L));
+
+        // 死信队列中保存了原消息的id
+        List<MapRecord<String, Object, Object>> deadRecords = redisTemplate.opsForStream()
+                .reverseRange(SECKILL_ORDER_DEAD_STREAM_KEY, Range.unbounded());
+        assertNotNull(deadRecords);
+        MapRecord<String, Object, Object> deadRecord = deadRecords.stream()
+                .filter(record -> recordId.getValue().equals(record.getValue().get("sourceId")))
+                .findFirst().orElse(null);
+        assertNotNull(deadRecord);
+        redisTemplate.opsForStream().delete(SECKILL_ORDER_DEAD_STREAM_KEY, deadRecord.getId());
+    }
+}